@@ -1,5 +1,8 @@
 package forgeperms.api;
 
+import java.util.Collection;
+import java.util.concurrent.Future;
+
 import net.minecraft.command.CommandException;
 import net.minecraft.command.ICommandSender;
 import net.minecraft.entity.player.EntityPlayer;
@@ -55,4 +58,26 @@ public class ForgePermsAPI {
 		}
 		throw new CommandException("commands.generic.permission");
 	}
+
+	/**
+	 * Checks if a user has the given permission node without blocking the
+	 * calling thread while the user is loaded.
+	 * 
+	 * @param player
+	 * @param world
+	 * @param node
+	 * @return
+	 */
+	public static Future<Boolean> hasAsync(String player, String world, String node) {
+		return permManager.hasAsync(player, world, node);
+	}
+
+	/**
+	 * Starts loading of users in the background, e.g. before they join.
+	 * 
+	 * @param players
+	 */
+	public static void preload(Collection<String> players) {
+		permManager.preload(players);
+	}
 }
\ No newline at end of file
@@ -1,5 +1,10 @@
 package forgeperms.api;
 
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Future;
+
 /**
  * Base for all permission handlers
  * 
@@ -38,6 +43,64 @@ public interface IPermissionManager {
 	 */
 	public boolean canAccess(String player, String world, String node);
 
+	/**
+	 * Checks several permission nodes of a user in the given world at once
+	 * 
+	 * @param player
+	 * @param world
+	 * @param nodes
+	 * @return bit i is set if user has nodes[i]
+	 */
+	public BitSet checkMany(String player, String world, String[] nodes);
+
+	/**
+	 * Checks if a user has all of the permission nodes in the given world
+	 * 
+	 * @param player
+	 * @param world
+	 * @param nodes
+	 * @return
+	 */
+	public boolean hasAll(String player, String world, String[] nodes);
+
+	/**
+	 * Checks if a user has any of the permission nodes in the given world
+	 * 
+	 * @param player
+	 * @param world
+	 * @param nodes
+	 * @return
+	 */
+	public boolean hasAny(String player, String world, String[] nodes);
+
+	/**
+	 * Returns users which have the permission node in the given world
+	 * 
+	 * @param players
+	 * @param world
+	 * @param node
+	 * @return
+	 */
+	public List<String> filterPlayers(Collection<String> players, String world, String node);
+
+	/**
+	 * Checks if a user has the permission node in the given world without
+	 * blocking the calling thread while the user is loaded
+	 * 
+	 * @param player
+	 * @param world
+	 * @param node
+	 * @return
+	 */
+	public Future<Boolean> hasAsync(String player, String world, String node);
+
+	/**
+	 * Starts loading of users in the background
+	 * 
+	 * @param players
+	 */
+	public void preload(Collection<String> players);
+
 	public boolean addGroup(String player, String group);
 
 	public boolean removeGroup(String player, String group);
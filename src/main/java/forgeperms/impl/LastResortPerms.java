@@ -1,5 +1,13 @@
 package forgeperms.impl;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import com.google.common.util.concurrent.Futures;
+
 import forgeperms.api.IPermissionManager;
 
 public class LastResortPerms implements IPermissionManager {
@@ -24,6 +32,35 @@ public class LastResortPerms implements IPermissionManager {
 		return false;
 	}
 
+	@Override
+	public BitSet checkMany(String player, String world, String[] nodes) {
+		return new BitSet(nodes.length);
+	}
+
+	@Override
+	public boolean hasAll(String player, String world, String[] nodes) {
+		return nodes.length == 0;
+	}
+
+	@Override
+	public boolean hasAny(String player, String world, String[] nodes) {
+		return false;
+	}
+
+	@Override
+	public List<String> filterPlayers(Collection<String> players, String world, String node) {
+		return new ArrayList<String>();
+	}
+
+	@Override
+	public Future<Boolean> hasAsync(String player, String world, String node) {
+		return Futures.immediateFuture(false);
+	}
+
+	@Override
+	public void preload(Collection<String> players) {
+	}
+
 	@Override
 	public boolean addGroup(String player, String group) {
 		return true;
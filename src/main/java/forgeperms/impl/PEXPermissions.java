@@ -1,5 +1,10 @@
 package forgeperms.impl;
 
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Future;
+
 import pex.permissions.IPermissions;
 import pex.permissions.PermissionGroup;
 import pex.permissions.PermissionUser;
@@ -64,6 +69,52 @@ public class PEXPermissions implements IPermissionManager {
 		return pex.has(player, node, world);
 	}
 
+	@Override
+	public BitSet checkMany(String player, String world, String[] nodes) {
+		if (!pexAvailable()) {
+			throw new RuntimeException("PEX not found");
+		}
+
+		return pex.checkMany(player, world, nodes);
+	}
+
+	@Override
+	public boolean hasAll(String player, String world, String[] nodes) {
+		return checkMany(player, world, nodes).cardinality() == nodes.length;
+	}
+
+	@Override
+	public boolean hasAny(String player, String world, String[] nodes) {
+		return !checkMany(player, world, nodes).isEmpty();
+	}
+
+	@Override
+	public List<String> filterPlayers(Collection<String> players, String world, String node) {
+		if (!pexAvailable()) {
+			throw new RuntimeException("PEX not found");
+		}
+
+		return pex.filterPlayers(players, world, node);
+	}
+
+	@Override
+	public Future<Boolean> hasAsync(String player, String world, String node) {
+		if (!pexAvailable()) {
+			throw new RuntimeException("PEX not found");
+		}
+
+		return pex.hasAsync(player, node, world);
+	}
+
+	@Override
+	public void preload(Collection<String> players) {
+		if (!pexAvailable()) {
+			throw new RuntimeException("PEX not found");
+		}
+
+		pex.preload(players);
+	}
+
 	@Override
 	public boolean addGroup(String playerName, String groupName) {
 		PermissionGroup group = (PermissionGroup) pex.getGroup(groupName);
@@ -1,6 +1,13 @@
 package forgeperms.impl;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Future;
+
 import com.esotericsoftware.reflectasm.MethodAccess;
+import com.google.common.util.concurrent.Futures;
 
 import forgeperms.api.IPermissionManager;
 
@@ -48,6 +55,69 @@ public class SuperPermsBridge implements IPermissionManager {
 		return (Boolean) playerAccess.invoke(playerObj, hasPermissionIndex, node);
 	}
 
+	@Override
+	public BitSet checkMany(String player, String world, String[] nodes) {
+		Object playerObj = serverAccess.invoke(serverObj, getPlayerExactIndex, player);
+		BitSet result = new BitSet(nodes.length);
+
+		for (int i = 0; i < nodes.length; i++) {
+			if ((Boolean) playerAccess.invoke(playerObj, hasPermissionIndex, nodes[i])) {
+				result.set(i);
+			}
+		}
+
+		return result;
+	}
+
+	@Override
+	public boolean hasAll(String player, String world, String[] nodes) {
+		Object playerObj = serverAccess.invoke(serverObj, getPlayerExactIndex, player);
+
+		for (String node : nodes) {
+			if (!(Boolean) playerAccess.invoke(playerObj, hasPermissionIndex, node)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	@Override
+	public boolean hasAny(String player, String world, String[] nodes) {
+		Object playerObj = serverAccess.invoke(serverObj, getPlayerExactIndex, player);
+
+		for (String node : nodes) {
+			if ((Boolean) playerAccess.invoke(playerObj, hasPermissionIndex, node)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	@Override
+	public List<String> filterPlayers(Collection<String> players, String world, String node) {
+		List<String> result = new ArrayList<String>(players.size());
+
+		for (String player : players) {
+			if (canAccess(player, world, node)) {
+				result.add(player);
+			}
+		}
+
+		return result;
+	}
+
+	@Override
+	public Future<Boolean> hasAsync(String player, String world, String node) {
+		// Bukkit keeps permissions of online players in memory
+		return Futures.immediateFuture(canAccess(player, world, node));
+	}
+
+	@Override
+	public void preload(Collection<String> players) {
+	}
+
 	@Override
 	public boolean addGroup(String player, String group) {
 		return false;
@@ -5,6 +5,7 @@ import static org.bukkit.util.NumberConversions.toInt;
 import static org.bukkit.util.NumberConversions.toLong;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -23,6 +24,8 @@ public class MemorySection implements ConfigurationSection {
 	private final ConfigurationSection parent;
 	private final String path;
 	private final String fullPath;
+	private Map<String, String> lowerKeys = null;
+	private int caseDuplicates = 0;
 
 	/**
 	 * Creates an empty MemorySection for use as a root {@link Configuration}
@@ -198,9 +201,11 @@ public class MemorySection implements ConfigurationSection {
 		String key = path.substring(i2);
 		if (section == this) {
 			if (value == null) {
-				map.remove(key);
-			} else {
-				map.put(key, value);
+				if (map.remove(key) != null) {
+					keyRemoved(key);
+				}
+			} else if (map.put(key, value) == null) {
+				keyAdded(key);
 			}
 		} else {
 			section.set(key, value);
@@ -271,12 +276,78 @@ public class MemorySection implements ConfigurationSection {
 		String key = path.substring(i2);
 		if (section == this) {
 			ConfigurationSection result = new MemorySection(this, key);
-			map.put(key, result);
+			if (map.put(key, result) == null) {
+				keyAdded(key);
+			}
 			return result;
 		}
 		return section.createSection(key);
 	}
 
+	/**
+	 * Gets the key of a direct child of this section which matches the given
+	 * key ignoring case.
+	 * <p />
+	 * Index of lowercased keys is built on first call and kept up to date on
+	 * changes of this section, so lookups don't scan the section.
+	 * 
+	 * @param key
+	 *            Key to look for.
+	 * @return Matching key as it is stored, or null if there is none.
+	 */
+	public String getKeyIgnoreCase(String key) {
+		if (map.containsKey(key)) {
+			return key;
+		}
+
+		if (lowerKeys == null) {
+			lowerKeys = new HashMap<String, String>();
+
+			for (String existing : map.keySet()) {
+				keyAdded(existing);
+			}
+		}
+
+		return lowerKeys.get(key.toLowerCase());
+	}
+
+	private void keyAdded(String key) {
+		if (lowerKeys == null) {
+			return;
+		}
+
+		String lowerKey = key.toLowerCase();
+		if (lowerKeys.containsKey(lowerKey)) {
+			caseDuplicates++; // first key keeps the place
+		} else {
+			lowerKeys.put(lowerKey, key);
+		}
+	}
+
+	private void keyRemoved(String key) {
+		if (lowerKeys == null) {
+			return;
+		}
+
+		String lowerKey = key.toLowerCase();
+		if (!key.equals(lowerKeys.get(lowerKey))) {
+			caseDuplicates--;
+			return;
+		}
+
+		lowerKeys.remove(lowerKey);
+
+		if (caseDuplicates > 0) { // key differing only in case could take the place
+			for (String existing : map.keySet()) {
+				if (existing.toLowerCase().equals(lowerKey)) {
+					lowerKeys.put(lowerKey, existing);
+					caseDuplicates--;
+					break;
+				}
+			}
+		}
+	}
+
 	@Override
 	public ConfigurationSection createSection(String path, Map<?, ?> map) {
 		ConfigurationSection section = createSection(path);
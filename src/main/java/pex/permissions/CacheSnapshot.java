@@ -0,0 +1,111 @@
+package pex.permissions;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Base of lazily resolved entity data. Snapshot is never cleared, instead
+ * entity replaces it with new empty one when anything is changed. Values are
+ * resolved lazily, readers don't need any locks.
+ *
+ * Snapshot is stamped with manager generation at creation time and records
+ * groups it was resolved from. It becomes stale after global invalidation or
+ * change of any of these groups. Staleness is checked on access, so
+ * invalidation itself costs O(1).
+ *
+ * World keys are normalized with worldKey(), since concurrent maps can't hold
+ * null keys.
+ */
+public abstract class CacheSnapshot {
+
+	protected final long generation;
+	protected final Set<String> dependencies = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	protected volatile long checkedGeneration;
+	protected int dependencyChanges = 0;
+
+	public CacheSnapshot(long generation) {
+		this.generation = generation;
+		this.checkedGeneration = generation;
+	}
+
+	/**
+	 * Checks if snapshot is still up to date
+	 *
+	 * @param manager
+	 * @return false if global or dependency group invalidation happened after
+	 *         snapshot was created
+	 */
+	public boolean isValid(PermissionManager manager) {
+		long current = manager.getGeneration();
+
+		if (current == checkedGeneration) {
+			return true;
+		}
+
+		int changes;
+		synchronized (this) {
+			changes = dependencyChanges;
+		}
+
+		if (manager.getGlobalGeneration() > generation) {
+			return false;
+		}
+
+		for (String groupName : dependencies) {
+			if (manager.getGroupGeneration(groupName) > generation) {
+				return false;
+			}
+		}
+
+		synchronized (this) {
+			if (changes == dependencyChanges) { // dependency added meanwhile is not checked yet
+				checkedGeneration = current;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Records group which resolved data depends on. Group data could be read
+	 * before it is recorded, so next isValid() checks all dependencies again.
+	 *
+	 * @param groupName
+	 */
+	public void addDependency(String groupName) {
+		if (!dependencies.add(groupName.toLowerCase())) {
+			return;
+		}
+
+		synchronized (this) {
+			dependencyChanges++;
+			checkedGeneration = generation;
+		}
+	}
+
+	/**
+	 * Records groups and all their ancestors as dependencies
+	 *
+	 * @param groups
+	 * @param worldName
+	 */
+	public void addGroupDependencies(PermissionGroup[] groups, String worldName) {
+		for (PermissionGroup group : groups) {
+			if (group == null || dependencies.contains(group.getName().toLowerCase())) {
+				continue;
+			}
+
+			addDependency(group.getName());
+			addGroupDependencies(group.getParentGroups(worldName), worldName);
+		}
+	}
+
+	public long getGeneration() {
+		return generation;
+	}
+
+	protected static String worldKey(String worldName) {
+		return worldName == null ? "" : worldName;
+	}
+}
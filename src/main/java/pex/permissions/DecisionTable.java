@@ -0,0 +1,114 @@
+package pex.permissions;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cache of permission check results, keyed by world and then by permission
+ * node. Safe for concurrent use, lookups don't lock. Every world table is
+ * limited in size, when it is full the table is cleared and refilled by
+ * following checks.
+ *
+ * Decision is packed into int: result (UNDEFINED, ALLOW or DENY) in lowest
+ * bits and index of matched expression above them.
+ */
+public class DecisionTable {
+
+	public final static int MISSING = -1;
+
+	public final static int UNDEFINED = 0;
+	public final static int ALLOW = 1;
+	public final static int DENY = 2;
+
+	protected final static int RESULT_BITS = 2;
+	protected final static int RESULT_MASK = (1 << RESULT_BITS) - 1;
+
+	protected final ConcurrentMap<String, ConcurrentMap<String, Integer>> worlds = new ConcurrentHashMap<String, ConcurrentMap<String, Integer>>();
+	protected final int maxSize;
+
+	public DecisionTable(int maxSize) {
+		this.maxSize = Math.max(1, maxSize);
+	}
+
+	/**
+	 * Returns cached decision
+	 *
+	 * @param world
+	 *            world name, "" for common space
+	 * @param permission
+	 *            permission node
+	 * @return packed decision or MISSING
+	 */
+	public int get(String world, String permission) {
+		ConcurrentMap<String, Integer> decisions = worlds.get(world);
+
+		if (decisions == null) {
+			return MISSING;
+		}
+
+		Integer decision = decisions.get(permission);
+
+		return decision == null ? MISSING : decision;
+	}
+
+	public void put(String world, String permission, int decision) {
+		ConcurrentMap<String, Integer> decisions = worlds.get(world);
+
+		if (decisions == null) {
+			ConcurrentMap<String, Integer> created = new ConcurrentHashMap<String, Integer>();
+			decisions = worlds.putIfAbsent(world, created);
+
+			if (decisions == null) {
+				decisions = created;
+			}
+		}
+
+		if (decisions.size() >= maxSize) {
+			decisions.clear();
+		}
+
+		decisions.put(permission, decision);
+	}
+
+	public void clear() {
+		worlds.clear();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Packs decision
+	 *
+	 * @param expressions
+	 *            permission list which was checked
+	 * @param index
+	 *            index of matched expression or -1
+	 * @return packed decision
+	 */
+	public static int encode(String[] expressions, int index) {
+		if (index < 0) {
+			return UNDEFINED;
+		}
+
+		int result = expressions[index].startsWith("-") ? DENY : ALLOW;
+
+		return (index << RESULT_BITS) | result;
+	}
+
+	public static int getResult(int decision) {
+		return decision & RESULT_MASK;
+	}
+
+	/**
+	 * Returns index of matched expression
+	 *
+	 * @param decision
+	 *            packed decision
+	 * @return expression index or -1 if decision is UNDEFINED
+	 */
+	public static int getIndex(int decision) {
+		return getResult(decision) == UNDEFINED ? -1 : decision >>> RESULT_BITS;
+	}
+}
@@ -0,0 +1,466 @@
+package pex.permissions;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of loaded users or groups keyed by lowercased name. Loading is
+ * single-flight: concurrent requests for the same name wait for one load
+ * instead of querying backend several times.
+ *
+ * Entity is visible to its loading thread before initialization is finished,
+ * so entity could request itself (through inheritance) while initializing.
+ *
+ * Registry could be bounded: entities which are not pinned are evicted when
+ * there are more than maxSize of them (least recently used first) or when
+ * they were not accessed for idleTime. Evicted entity is loaded again on
+ * next request.
+ *
+ * Entity which departed (player logged out) is kept for a grace period only,
+ * so quick reconnect gets it back with resolved data and no backend access.
+ * Resolved data is checked against change generations as usual.
+ */
+public abstract class EntityRegistry<T extends PermissionEntity> {
+
+	protected final String type;
+	protected final ConcurrentMap<String, Entry> entities = new ConcurrentHashMap<String, Entry>();
+	protected final Set<String> pinned;
+	protected final ConcurrentMap<String, Loading> loading = new ConcurrentHashMap<String, Loading>();
+	protected volatile long epoch = 0;
+
+	protected volatile int maxSize = 0;
+	protected volatile long idleTime = 0;
+
+	protected final AtomicLong loads = new AtomicLong();
+	protected final AtomicLong coalesced = new AtomicLong();
+	protected final AtomicLong loadTime = new AtomicLong();
+	protected final AtomicLong evictions = new AtomicLong();
+	protected final AtomicLong reconnects = new AtomicLong();
+
+	/**
+	 * @param type
+	 *            entity type name for error messages ("User", "Group")
+	 */
+	public EntityRegistry(String type) {
+		this(type, Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()));
+	}
+
+	/**
+	 * @param type
+	 *            entity type name for error messages ("User", "Group")
+	 * @param pinned
+	 *            concurrent set of pinned lowercased names, could be shared
+	 *            with registry which this one replaces
+	 */
+	public EntityRegistry(String type, Set<String> pinned) {
+		this.type = type;
+		this.pinned = pinned;
+	}
+
+	/**
+	 * Create entity for name, called once per load
+	 *
+	 * @param name
+	 *            entity name as requested
+	 * @return new entity, null if backend could not create it
+	 */
+	protected abstract T create(String name);
+
+	/**
+	 * Called after entity is created, before it is initialized
+	 *
+	 * @param entity
+	 */
+	protected void created(T entity) {
+	}
+
+	/**
+	 * Called after entity is initialized and registered
+	 *
+	 * @param entity
+	 */
+	protected void loaded(T entity) {
+	}
+
+	/**
+	 * Return loaded entity or load it
+	 *
+	 * @param name
+	 *            entity name
+	 * @return entity, never null
+	 */
+	public T get(String name) {
+		String key = name.toLowerCase();
+
+		while (true) {
+			Entry entry = entities.get(key);
+			if (entry != null) {
+				if (!entry.isDeparted(System.currentTimeMillis())) {
+					entry.touch();
+					return entry.entity;
+				}
+
+				evict(key, entry);
+			}
+
+			Loading current = new Loading();
+			Loading other = loading.putIfAbsent(key, current);
+
+			if (other == null) {
+				return load(name, key, current);
+			}
+
+			if (other.thread == Thread.currentThread()) { // requested while initializing
+				if (other.entity != null) {
+					return other.entity;
+				}
+
+				throw new IllegalStateException(type + " " + name + " is requested while it is created");
+			}
+
+			coalesced.incrementAndGet();
+			T entity = other.await();
+			if (entity != null) {
+				return entity;
+			}
+			// loader failed or registry was cleared, try again
+		}
+	}
+
+	protected T load(String name, String key, Loading current) {
+		long startTime = System.nanoTime();
+		long loadEpoch = epoch;
+
+		try {
+			Entry entry = entities.get(key); // could be registered after first check
+			if (entry != null) {
+				current.entity = entry.entity;
+				return entry.entity;
+			}
+
+			T entity = create(name);
+			if (entity == null) {
+				throw new IllegalStateException(type + " " + name + " is null");
+			}
+
+			current.entity = entity;
+			created(entity);
+			entity.initialize();
+
+			if (loadEpoch == epoch) {
+				entities.put(key, new Entry(entity));
+				loaded(entity);
+
+				if (maxSize > 0 && entities.size() > maxSize + pinned.size()) {
+					evictOverflow();
+				}
+			}
+
+			loads.incrementAndGet();
+			loadTime.addAndGet(System.nanoTime() - startTime);
+
+			return entity;
+		} catch (RuntimeException e) {
+			current.entity = null;
+			throw e;
+		} finally {
+			loading.remove(key, current);
+			current.done.countDown();
+		}
+	}
+
+	/**
+	 * Return entity if it is loaded
+	 *
+	 * @param name
+	 * @return entity or null
+	 */
+	public T getLoaded(String name) {
+		Entry entry = entities.get(name.toLowerCase());
+
+		return entry == null ? null : entry.entity;
+	}
+
+	public Collection<T> getLoadedEntities() {
+		List<T> result = new ArrayList<T>(entities.size());
+
+		for (Entry entry : entities.values()) {
+			result.add(entry.entity);
+		}
+
+		return result;
+	}
+
+	public T remove(String name) {
+		Entry entry = entities.remove(name.toLowerCase());
+
+		return entry == null ? null : entry.entity;
+	}
+
+	/**
+	 * Protect entity from eviction, used for online players. Pin is kept
+	 * when entity is removed or registry is cleared.
+	 *
+	 * @param name
+	 */
+	public void pin(String name) {
+		String key = name.toLowerCase();
+		pinned.add(key);
+
+		Entry entry = entities.get(key);
+		if (entry != null && entry.departedUntil != 0) {
+			entry.departedUntil = 0;
+			reconnects.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Unpin entity and keep it for grace period only
+	 *
+	 * @param name
+	 * @param graceTime
+	 *            time in milliseconds, 0 to remove entity at once
+	 */
+	public void depart(String name, long graceTime) {
+		String key = name.toLowerCase();
+		pinned.remove(key);
+
+		Entry entry = entities.get(key);
+		if (entry == null) {
+			return;
+		}
+
+		if (graceTime > 0) {
+			entry.departedUntil = System.currentTimeMillis() + graceTime;
+		} else {
+			evict(key, entry);
+		}
+	}
+
+	public void unpin(String name) {
+		pinned.remove(name.toLowerCase());
+	}
+
+	public boolean isPinned(String name) {
+		return pinned.contains(name.toLowerCase());
+	}
+
+	/**
+	 * Return lowercased names of pinned entities
+	 */
+	public Set<String> getPinned() {
+		return Collections.unmodifiableSet(pinned);
+	}
+
+	/**
+	 * Set limits of unpinned entities
+	 *
+	 * @param maxSize
+	 *            maximum count of unpinned entities, 0 for no limit
+	 * @param idleTime
+	 *            time in milliseconds after which not accessed entity is
+	 *            evicted, 0 to keep entities
+	 */
+	public void setLimits(int maxSize, long idleTime) {
+		this.maxSize = Math.max(0, maxSize);
+		this.idleTime = Math.max(0, idleTime);
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getIdleTime() {
+		return idleTime;
+	}
+
+	/**
+	 * Evict unpinned entities which were not accessed for idle time, and
+	 * least recently used ones above size limit
+	 */
+	public void evictExpired() {
+		long now = System.currentTimeMillis();
+		long deadline = idleTime > 0 ? now - idleTime : Long.MIN_VALUE;
+
+		for (Map.Entry<String, Entry> entry : entities.entrySet()) {
+			if (pinned.contains(entry.getKey())) {
+				continue;
+			}
+
+			if (entry.getValue().lastAccess < deadline || entry.getValue().isDeparted(now)) {
+				evict(entry.getKey(), entry.getValue());
+			}
+		}
+
+		if (maxSize > 0 && entities.size() > maxSize) {
+			evictOverflow();
+		}
+	}
+
+	/**
+	 * Evict least recently used unpinned entities above size limit, some
+	 * extra space is freed so eviction doesn't run on every load
+	 */
+	protected synchronized void evictOverflow() {
+		List<Map.Entry<String, Entry>> candidates = new ArrayList<Map.Entry<String, Entry>>();
+
+		for (Map.Entry<String, Entry> entry : entities.entrySet()) {
+			if (!pinned.contains(entry.getKey())) {
+				candidates.add(entry);
+			}
+		}
+
+		int limit = maxSize;
+		if (limit <= 0 || candidates.size() <= limit) {
+			return;
+		}
+
+		Collections.sort(candidates, new Comparator<Map.Entry<String, Entry>>() {
+			@Override
+			public int compare(Map.Entry<String, Entry> o1, Map.Entry<String, Entry> o2) {
+				long a = o1.getValue().lastAccess;
+				long b = o2.getValue().lastAccess;
+
+				return a < b ? -1 : (a == b ? 0 : 1);
+			}
+		});
+
+		int count = candidates.size() - limit + limit / 10;
+		for (int i = 0; i < count && i < candidates.size(); i++) {
+			evict(candidates.get(i).getKey(), candidates.get(i).getValue());
+		}
+	}
+
+	protected void evict(String key, Entry entry) {
+		if (entities.remove(key, entry)) {
+			evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Remove all entities, loads which are in progress are not registered
+	 */
+	public void clear() {
+		epoch++;
+		entities.clear();
+	}
+
+	public int size() {
+		return entities.size();
+	}
+
+	public long getLoads() {
+		return loads.get();
+	}
+
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Return count of entities which were reused within grace period after
+	 * departure
+	 */
+	public long getReconnects() {
+		return reconnects.get();
+	}
+
+	/**
+	 * Return average load time
+	 *
+	 * @return time in microseconds
+	 */
+	public long getAverageLoadTime() {
+		long count = loads.get();
+
+		return count == 0 ? 0 : loadTime.get() / count / 1000;
+	}
+
+	public void resetStats() {
+		loads.set(0);
+		coalesced.set(0);
+		loadTime.set(0);
+		evictions.set(0);
+		reconnects.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "loaded " + size() + " (" + pinned.size() + " pinned), loads " + getLoads() + ", coalesced " + getCoalesced() + ", avg load " + getAverageLoadTime() + "us, evictions " + getEvictions() + ", reconnects " + getReconnects();
+	}
+
+	/**
+	 * Registered entity with time of last access
+	 */
+	protected class Entry {
+
+		protected final T entity;
+		protected volatile long lastAccess;
+		protected volatile long departedUntil = 0;
+
+		public Entry(T entity) {
+			this.entity = entity;
+			this.lastAccess = System.currentTimeMillis();
+		}
+
+		public void touch() {
+			lastAccess = System.currentTimeMillis();
+		}
+
+		/**
+		 * @return true if entity departed and its grace period is over
+		 */
+		public boolean isDeparted(long now) {
+			long until = departedUntil;
+
+			return until != 0 && until < now;
+		}
+	}
+
+	/**
+	 * Load in progress
+	 */
+	protected class Loading {
+
+		protected final Thread thread = Thread.currentThread();
+		protected final CountDownLatch done = new CountDownLatch(1);
+		protected volatile T entity;
+
+		/**
+		 * Wait for load to finish
+		 *
+		 * @return loaded entity or null if load failed
+		 */
+		public T await() {
+			boolean interrupted = false;
+
+			while (true) {
+				try {
+					done.await();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+
+			return entity;
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package pex.permissions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compiled permission expression (without leading "-" and "#" flags).
+ *
+ * Numeric ranges are kept as NumericRange tokens. When the rest of expression
+ * is plain text, every range is matched by "any number" group and checked
+ * with integer comparison after regexp match. Otherwise (wildcards or
+ * regexp syntax around ranges) regexp could match the same node in several
+ * ways, so ranges are compiled into compact digit patterns instead.
+ */
+public class ExpressionPattern {
+
+	protected final static String REGEXP_CHARS = "\\^$|?+()[]{}*.";
+	protected final static String NUMBER_GROUP = "(0|[1-9]\\d*)";
+
+	protected final Pattern pattern;
+	protected final NumericRange[] ranges;
+
+	protected ExpressionPattern(Pattern pattern, NumericRange[] ranges) {
+		this.pattern = pattern;
+		this.ranges = ranges;
+	}
+
+	/**
+	 * Compiles expression body
+	 *
+	 * @param expression
+	 *            expression without leading "-" and "#" flags
+	 * @return compiled expression
+	 */
+	public static ExpressionPattern compile(String expression) {
+		List<String> texts = new ArrayList<String>();
+		List<NumericRange> ranges = new ArrayList<NumericRange>();
+
+		Matcher rangeMatcher = NumericRange.finder(expression);
+		StringBuilder text = new StringBuilder();
+		int last = 0;
+		while (rangeMatcher.find()) {
+			NumericRange range = NumericRange.parse(rangeMatcher);
+
+			text.append(expression, last, rangeMatcher.start());
+			last = rangeMatcher.end();
+
+			if (range == null) { // too wide, keep it as text
+				text.append(rangeMatcher.group());
+				continue;
+			}
+
+			texts.add(text.toString());
+			ranges.add(range);
+			text.setLength(0);
+		}
+		text.append(expression, last, expression.length());
+		texts.add(text.toString());
+
+		boolean checkRanges = !ranges.isEmpty() && isPlainText(texts);
+
+		StringBuilder regexp = new StringBuilder();
+		for (int i = 0; i < texts.size(); i++) {
+			regexp.append(textToRegexp(texts.get(i)));
+
+			if (i < ranges.size()) {
+				regexp.append(checkRanges ? NUMBER_GROUP : "(" + ranges.get(i).toRegexp() + ")");
+			}
+		}
+
+		Pattern pattern = Pattern.compile(regexp.toString(), Pattern.CASE_INSENSITIVE);
+
+		return new ExpressionPattern(pattern, checkRanges ? ranges.toArray(new NumericRange[ranges.size()]) : null);
+	}
+
+	/**
+	 * Converts expression body into regular expression
+	 */
+	public static String toRegexp(String expression) {
+		StringBuilder regexp = new StringBuilder();
+
+		Matcher rangeMatcher = NumericRange.finder(expression);
+		int last = 0;
+		while (rangeMatcher.find()) {
+			NumericRange range = NumericRange.parse(rangeMatcher);
+
+			if (range != null) {
+				regexp.append(textToRegexp(expression.substring(last, rangeMatcher.start())));
+				regexp.append("(").append(range.toRegexp()).append(")");
+				last = rangeMatcher.end();
+			}
+		}
+		regexp.append(textToRegexp(expression.substring(last)));
+
+		return regexp.toString();
+	}
+
+	/**
+	 * Checks if ranges are separated by plain text, so regexp match could
+	 * split node only in one way
+	 */
+	protected static boolean isPlainText(List<String> texts) {
+		for (int i = 0; i < texts.size(); i++) {
+			String text = texts.get(i);
+
+			for (int j = 0; j < text.length(); j++) {
+				char c = text.charAt(j);
+				if (c != '.' && REGEXP_CHARS.indexOf(c) >= 0) {
+					return false;
+				}
+			}
+
+			// two numbers with only digits between them are ambiguous
+			if (i > 0 && i < texts.size() - 1 && isDigits(text)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	protected static boolean isDigits(String text) {
+		for (int i = 0; i < text.length(); i++) {
+			if (!Character.isDigit(text.charAt(i))) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	protected static String textToRegexp(String text) {
+		return text.replace(".", "\\.").replace("*", "(.*)");
+	}
+
+	public boolean matches(CharSequence input) {
+		return matches(input, 0, input.length());
+	}
+
+	/**
+	 * Checks if region of input matches expression
+	 *
+	 * @param input
+	 * @param start
+	 *            region start, inclusive
+	 * @param end
+	 *            region end, exclusive
+	 * @return true if whole region matches
+	 */
+	public boolean matches(CharSequence input, int start, int end) {
+		Matcher matcher = pattern.matcher(input);
+
+		if (start != 0 || end != input.length()) {
+			matcher.region(start, end);
+		}
+
+		if (!matcher.matches()) {
+			return false;
+		}
+
+		if (ranges != null) {
+			for (int i = 0; i < ranges.length; i++) {
+				if (!ranges[i].contains(input, matcher.start(i + 1), matcher.end(i + 1))) {
+					return false;
+				}
+			}
+		}
+
+		return true;
+	}
+
+	public Pattern getPattern() {
+		return pattern;
+	}
+
+	@Override
+	public String toString() {
+		return pattern.pattern();
+	}
+}
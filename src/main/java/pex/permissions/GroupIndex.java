@@ -0,0 +1,203 @@
+package pex.permissions;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reverse index of group inheritance and membership: group to child groups
+ * and group to member users. Relations are collected from all worlds, so
+ * index returns candidates only, exact world-aware check is left to caller.
+ *
+ * All names are stored lowercased.
+ */
+public class GroupIndex {
+
+	protected final Map<String, Set<String>> groupChildren = new HashMap<String, Set<String>>();
+	protected final Map<String, Set<String>> groupParents = new HashMap<String, Set<String>>();
+	protected final Map<String, Set<String>> groupMembers = new HashMap<String, Set<String>>();
+	protected final Map<String, Set<String>> userGroups = new HashMap<String, Set<String>>();
+
+	/**
+	 * Replace indexed parents of group with current ones
+	 *
+	 * @param group
+	 */
+	public synchronized void updateGroup(PermissionGroup group) {
+		String groupName = group.getName().toLowerCase();
+
+		Set<String> parents = new HashSet<String>();
+		for (String worldName : worldsOf(group)) {
+			for (String parentName : group.getParentGroupsNamesImpl(worldName)) {
+				parentName = parentName.trim();
+
+				if (!parentName.isEmpty() && !parentName.equalsIgnoreCase(groupName)) {
+					parents.add(parentName.toLowerCase());
+				}
+			}
+		}
+
+		replace(groupName, parents, groupParents, groupChildren);
+	}
+
+	/**
+	 * Replace indexed groups of user with current ones
+	 *
+	 * @param user
+	 */
+	public synchronized void updateUser(PermissionUser user) {
+		String userName = user.getName().toLowerCase();
+
+		Set<String> groups = new HashSet<String>();
+		for (String worldName : worldsOf(user)) {
+			for (String groupName : user.getGroupsNamesImpl(worldName)) {
+				if (groupName != null && !groupName.isEmpty()) {
+					groups.add(groupName.toLowerCase());
+				}
+			}
+		}
+
+		replace(userName, groups, userGroups, groupMembers);
+	}
+
+	/**
+	 * Replace indexed groups of user with ones read from stored data
+	 *
+	 * @param userName
+	 * @param groupNames
+	 *            groups of user in all worlds
+	 */
+	public synchronized void updateUser(String userName, Collection<String> groupNames) {
+		Set<String> groups = new HashSet<String>();
+		for (String groupName : groupNames) {
+			if (groupName != null && !groupName.isEmpty()) {
+				groups.add(groupName.toLowerCase());
+			}
+		}
+
+		replace(userName.toLowerCase(), groups, userGroups, groupMembers);
+	}
+
+	public synchronized void removeGroup(String groupName) {
+		replace(groupName.toLowerCase(), Collections.<String> emptySet(), groupParents, groupChildren);
+	}
+
+	public synchronized void removeUser(String userName) {
+		replace(userName.toLowerCase(), Collections.<String> emptySet(), userGroups, groupMembers);
+	}
+
+	/**
+	 * Return names of direct child groups, or all descendants
+	 *
+	 * @param groupName
+	 * @param inheritance
+	 *            true to return all descendant groups
+	 * @return set of lowercased group names
+	 */
+	public synchronized Set<String> getChildGroups(String groupName, boolean inheritance) {
+		Set<String> result = new HashSet<String>();
+		LinkedList<String> queue = new LinkedList<String>();
+		queue.add(groupName.toLowerCase());
+
+		while (!queue.isEmpty()) {
+			Set<String> children = groupChildren.get(queue.removeFirst());
+
+			if (children == null) {
+				continue;
+			}
+
+			for (String child : children) {
+				if (result.add(child) && inheritance) {
+					queue.add(child);
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Return names of users which are members of group, or of any of its
+	 * descendants
+	 *
+	 * @param groupName
+	 * @param inheritance
+	 *            true to include members of descendant groups
+	 * @return set of lowercased user names
+	 */
+	public synchronized Set<String> getMembers(String groupName, boolean inheritance) {
+		Set<String> result = new HashSet<String>();
+
+		addMembers(groupName.toLowerCase(), result);
+
+		if (inheritance) {
+			for (String child : getChildGroups(groupName, true)) {
+				addMembers(child, result);
+			}
+		}
+
+		return result;
+	}
+
+	protected void addMembers(String groupName, Set<String> result) {
+		Set<String> members = groupMembers.get(groupName);
+
+		if (members != null) {
+			result.addAll(members);
+		}
+	}
+
+	/**
+	 * Replaces forward relations of entity and updates reverse relations
+	 */
+	protected static void replace(String name, Set<String> targets, Map<String, Set<String>> forward, Map<String, Set<String>> reverse) {
+		Set<String> old = forward.remove(name);
+
+		if (old != null) {
+			for (String target : old) {
+				Set<String> sources = reverse.get(target);
+
+				if (sources != null) {
+					sources.remove(name);
+					if (sources.isEmpty()) {
+						reverse.remove(target);
+					}
+				}
+			}
+		}
+
+		if (targets.isEmpty()) {
+			return;
+		}
+
+		forward.put(name, targets);
+
+		for (String target : targets) {
+			Set<String> sources = reverse.get(target);
+
+			if (sources == null) {
+				reverse.put(target, sources = new HashSet<String>());
+			}
+
+			sources.add(name);
+		}
+	}
+
+	protected static Set<String> worldsOf(PermissionEntity entity) {
+		Set<String> worlds = new HashSet<String>();
+
+		worlds.add(null);
+
+		String[] entityWorlds = entity.getWorlds();
+		if (entityWorlds != null) {
+			worlds.addAll(Arrays.asList(entityWorlds));
+		}
+
+		return worlds;
+	}
+}
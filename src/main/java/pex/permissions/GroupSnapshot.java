@@ -0,0 +1,29 @@
+package pex.permissions;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolved state of PermissionGroup. Depends on group itself and all its
+ * ancestors.
+ */
+public class GroupSnapshot extends CacheSnapshot {
+
+	/**
+	 * Marks option which is not set, so missing options are memoized too
+	 */
+	protected final static String NO_VALUE = new String("");
+
+	protected final ConcurrentMap<String, PermissionGroup[]> parents = new ConcurrentHashMap<String, PermissionGroup[]>();
+	protected final ConcurrentMap<String, String[]> permissions = new ConcurrentHashMap<String, String[]>();
+	protected final ConcurrentMap<String, String[]> inheritablePermissions = new ConcurrentHashMap<String, String[]>();
+	protected final ConcurrentMap<String, String> prefixes = new ConcurrentHashMap<String, String>();
+	protected final ConcurrentMap<String, String> suffixes = new ConcurrentHashMap<String, String>();
+	protected final ConcurrentMap<String, String> options = new ConcurrentHashMap<String, String>();
+
+	public GroupSnapshot(String groupName, long generation) {
+		super(generation);
+
+		addDependency(groupName);
+	}
+}
@@ -1,5 +1,10 @@
 package pex.permissions;
 
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Future;
+
 import net.minecraft.entity.player.EntityPlayer;
 
 public interface IPermissions {
@@ -9,6 +14,14 @@ public interface IPermissions {
 
 	boolean has(String player, String permission, String world);
 
+	BitSet checkMany(String player, String world, String[] permissions);
+
+	List<String> filterPlayers(Collection<String> players, String world, String permission);
+
+	Future<Boolean> hasAsync(String player, String permission, String world);
+
+	void preload(Collection<String> players);
+
 	String prefix(String player, String world);
 
 	String suffix(String player, String world);
@@ -0,0 +1,248 @@
+package pex.permissions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Numeric range token of permission expression ("1-4095"). Matches decimal
+ * numbers without leading zeros which are within range (bounds included).
+ */
+public class NumericRange {
+
+	protected final static Pattern RANGE_PATTERN = Pattern.compile("(\\d+)-(\\d+)");
+	protected final static int MAX_DIGITS = 18; // fits into long
+
+	protected final long from;
+	protected final long to;
+
+	public NumericRange(long from, long to) {
+		if (from > to) {
+			long temp = from;
+			from = to;
+			to = temp;
+		} // swap them
+
+		this.from = from;
+		this.to = to;
+	}
+
+	/**
+	 * Parses range token
+	 *
+	 * @param token
+	 *            range text like "1-100"
+	 * @return parsed range or null if token is not a range (or too wide)
+	 */
+	public static NumericRange parse(String token) {
+		Matcher matcher = RANGE_PATTERN.matcher(token);
+
+		if (!matcher.matches()) {
+			return null;
+		}
+
+		return parse(matcher);
+	}
+
+	protected static NumericRange parse(Matcher matcher) {
+		String from = matcher.group(1);
+		String to = matcher.group(2);
+
+		if (from.length() > MAX_DIGITS || to.length() > MAX_DIGITS) {
+			return null;
+		}
+
+		return new NumericRange(Long.parseLong(from), Long.parseLong(to));
+	}
+
+	/**
+	 * Returns matcher which finds range tokens in expression
+	 */
+	public static Matcher finder(CharSequence expression) {
+		return RANGE_PATTERN.matcher(expression);
+	}
+
+	public long getFrom() {
+		return from;
+	}
+
+	public long getTo() {
+		return to;
+	}
+
+	/**
+	 * Checks if text region is decimal number within range
+	 *
+	 * @param text
+	 * @param start
+	 *            region start, inclusive
+	 * @param end
+	 *            region end, exclusive
+	 * @return true if region is number within range
+	 */
+	public boolean contains(CharSequence text, int start, int end) {
+		int length = end - start;
+
+		if (length <= 0 || length > MAX_DIGITS || (length > 1 && text.charAt(start) == '0')) {
+			return false;
+		}
+
+		long value = 0;
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+
+			if (c < '0' || c > '9') {
+				return false;
+			}
+
+			value = value * 10 + (c - '0');
+		}
+
+		return value >= from && value <= to;
+	}
+
+	/**
+	 * Converts range into regular expression without group per number. Size
+	 * of expression depends on number of digits, not on width of range.
+	 *
+	 * @return regular expression which matches numbers within range
+	 */
+	public String toRegexp() {
+		List<String> parts = new ArrayList<String>();
+
+		long low = from;
+		while (low <= to) {
+			long lengthLimit = maxWithDigits(digits(low));
+			long high = Math.min(to, lengthLimit);
+
+			splitRange(Long.toString(low), Long.toString(high), "", parts);
+
+			if (high == to) {
+				break;
+			}
+
+			low = high + 1;
+		}
+
+		StringBuilder regexp = new StringBuilder();
+		for (String part : parts) {
+			if (regexp.length() > 0) {
+				regexp.append("|");
+			}
+
+			regexp.append(part);
+		}
+
+		return regexp.toString();
+	}
+
+	/**
+	 * Splits range of numbers with same length into patterns like
+	 * "12[3-7]\d\d"
+	 */
+	protected static void splitRange(String low, String high, String prefix, List<String> parts) {
+		if (low.equals(high)) {
+			parts.add(prefix + low);
+			return;
+		}
+
+		char lowDigit = low.charAt(0);
+		char highDigit = high.charAt(0);
+		String lowRest = low.substring(1);
+		String highRest = high.substring(1);
+
+		if (lowDigit == highDigit) {
+			splitRange(lowRest, highRest, prefix + lowDigit, parts);
+			return;
+		}
+
+		if (isRepeated(lowRest, '0') && isRepeated(highRest, '9')) {
+			parts.add(prefix + digitClass(lowDigit, highDigit) + anyDigits(lowRest.length()));
+			return;
+		}
+
+		if (isRepeated(lowRest, '0')) {
+			parts.add(prefix + digitClass(lowDigit, lowDigit) + anyDigits(lowRest.length()));
+		} else {
+			splitRange(lowRest, repeat('9', lowRest.length()), prefix + lowDigit, parts);
+		}
+
+		if (lowDigit + 1 <= highDigit - 1) {
+			parts.add(prefix + digitClass((char) (lowDigit + 1), (char) (highDigit - 1)) + anyDigits(lowRest.length()));
+		}
+
+		if (isRepeated(highRest, '9')) {
+			parts.add(prefix + digitClass(highDigit, highDigit) + anyDigits(highRest.length()));
+		} else {
+			splitRange(repeat('0', highRest.length()), highRest, prefix + highDigit, parts);
+		}
+	}
+
+	protected static String digitClass(char from, char to) {
+		return from == to ? String.valueOf(from) : "[" + from + "-" + to + "]";
+	}
+
+	protected static String anyDigits(int count) {
+		if (count == 0) {
+			return "";
+		}
+
+		return count == 1 ? "\\d" : "\\d{" + count + "}";
+	}
+
+	protected static boolean isRepeated(String string, char c) {
+		for (int i = 0; i < string.length(); i++) {
+			if (string.charAt(i) != c) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	protected static String repeat(char c, int count) {
+		StringBuilder builder = new StringBuilder(count);
+
+		for (int i = 0; i < count; i++) {
+			builder.append(c);
+		}
+
+		return builder.toString();
+	}
+
+	protected static int digits(long value) {
+		return Long.toString(value).length();
+	}
+
+	protected static long maxWithDigits(int digits) {
+		long max = 9;
+
+		for (int i = 1; i < digits && i < MAX_DIGITS; i++) {
+			max = max * 10 + 9;
+		}
+
+		return max;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof NumericRange)) {
+			return false;
+		}
+
+		NumericRange other = (NumericRange) obj;
+
+		return from == other.from && to == other.to;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (from ^ (from >>> 32)) * 31 + (int) (to ^ (to >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		return from + "-" + to;
+	}
+}
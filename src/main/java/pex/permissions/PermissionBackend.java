@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.lang.reflect.Constructor;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -223,6 +224,17 @@ public abstract class PermissionBackend {
 	 */
 	public abstract PermissionUser[] getRegisteredUsers();
 
+	/**
+	 * Return group names of registered users in all worlds, read from stored
+	 * data without loading users. Backends which can't do it return null and
+	 * users are loaded instead.
+	 * 
+	 * @return map of user name to group names, or null
+	 */
+	public Map<String, Set<String>> getUserGroupNames() {
+		return null;
+	}
+
 	/**
 	 * Return users of specified group.
 	 * 
@@ -274,6 +286,33 @@ public abstract class PermissionBackend {
 	 */
 	public abstract void reload();
 
+	/**
+	 * Write pending changes to storage, backends which write at once have
+	 * nothing to do
+	 */
+	public void flush() {
+	}
+
+	/**
+	 * Release resources of backend which is replaced or no longer used.
+	 * Pending changes are written, backend should not be used after it.
+	 */
+	public void close() {
+	}
+
+	/**
+	 * Return backend with reloaded data for new permission model. Backends
+	 * which keep data in memory should return new instance, so previous model
+	 * is not affected while new one is built.
+	 * 
+	 * @return reloaded backend
+	 */
+	public PermissionBackend reloaded() {
+		reload();
+
+		return this;
+	}
+
 	/**
 	 * Dump data to native backend format
 	 * 
@@ -283,6 +322,43 @@ public abstract class PermissionBackend {
 	 */
 	public abstract void dumpData(OutputStreamWriter writer) throws IOException;
 
+	/**
+	 * Return stored timed permissions of all users and groups. Backends which
+	 * can't store them return empty list, timed permissions are lost on
+	 * restart then.
+	 * 
+	 * @return list of grants with absolute expiration time
+	 */
+	public List<TimedPermissionScheduler.Grant> loadTimedPermissions() {
+		return new LinkedList<TimedPermissionScheduler.Grant>();
+	}
+
+	/**
+	 * Store timed permission, replacing previous grant of same permission in
+	 * same world
+	 * 
+	 * @param grant
+	 */
+	public void saveTimedPermission(TimedPermissionScheduler.Grant grant) {
+	}
+
+	/**
+	 * Remove stored timed permissions
+	 * 
+	 * @param grants
+	 */
+	public void removeTimedPermissions(Collection<TimedPermissionScheduler.Grant> grants) {
+	}
+
+	/**
+	 * Remove all stored timed permissions which expire not later than time
+	 * 
+	 * @param time
+	 *            unix time in seconds
+	 */
+	public void pruneTimedPermissions(long time) {
+	}
+
 	/**
 	 * Array of backend aliases
 	 */
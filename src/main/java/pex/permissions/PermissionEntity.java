@@ -18,11 +18,11 @@
  */
 package pex.permissions;
 
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Logger;
 
 public abstract class PermissionEntity implements IPermissionEntity {
@@ -30,7 +30,7 @@ public abstract class PermissionEntity implements IPermissionEntity {
 	protected PermissionManager manager;
 	private String name;
 	protected boolean virtual = true;
-	protected Map<String, List<String>> timedPermissions = new ConcurrentHashMap<String, List<String>>();
+	protected ConcurrentMap<String, List<String>> timedPermissions = new ConcurrentHashMap<String, List<String>>();
 	protected Map<String, Long> timedPermissionsTime = new ConcurrentHashMap<String, Long>();
 	protected boolean debugMode = false;
 
@@ -139,14 +139,28 @@ public abstract class PermissionEntity implements IPermissionEntity {
 	 */
 	@Override
 	public boolean has(String permission, String dimension) {
-		if (permission != null && permission.isEmpty()) { // empty permission
-															// for public access
-															// :)
-			return true;
-		}
+		return isPublic(permission) || explainPermission(permission, getMatchingExpression(permission, dimension));
+	}
 
-		String expression = getMatchingExpression(permission, dimension);
+	/**
+	 * @return true if permission is empty, empty permission is for public
+	 *         access :)
+	 */
+	protected static boolean isPublic(String permission) {
+		return permission != null && permission.isEmpty();
+	}
 
+	/**
+	 * Explain expression which matched permission, check is logged in debug
+	 * mode
+	 * 
+	 * @param permission
+	 *            checked permission
+	 * @param expression
+	 *            matching expression or null
+	 * @return true if expression grants permission
+	 */
+	protected boolean explainPermission(String permission, String expression) {
 		if (isDebug()) {
 			Logger.getLogger("Minecraft").info("User " + getName() + " checked for \"" + permission + "\", " + (expression == null ? "no permission found" : "\"" + expression + "\" found"));
 		}
@@ -414,11 +428,12 @@ public abstract class PermissionEntity implements IPermissionEntity {
 			world = "";
 		}
 
-		if (!timedPermissions.containsKey(world)) {
+		List<String> permissions = timedPermissions.get(world);
+		if (permissions == null) {
 			return new String[0];
 		}
 
-		return timedPermissions.get(world).toArray(new String[0]);
+		return permissions.toArray(new String[0]);
 	}
 
 	/*
@@ -449,33 +464,46 @@ public abstract class PermissionEntity implements IPermissionEntity {
 	 * .String, java.lang.String, int)
 	 */
 	@Override
-	public void addTimedPermission(final String permission, String world, int lifeTime) {
+	public void addTimedPermission(String permission, String world, int lifeTime) {
 		if (world == null) {
 			world = "";
 		}
 
-		if (!timedPermissions.containsKey(world)) {
-			timedPermissions.put(world, new LinkedList<String>());
-		}
-
-		timedPermissions.get(world).add(permission);
-
-		final String finalWorld = world;
+		long expiresAt = lifeTime > 0 ? System.currentTimeMillis() / 1000L + lifeTime : 0;
 
-		if (lifeTime > 0) {
-			TimerTask task = new TimerTask() {
-
-				@Override
-				public void run() {
-					removeTimedPermission(permission, finalWorld);
-				}
-			};
+		restoreTimedPermission(permission, world, expiresAt);
+		manager.getTimedPermissionScheduler().schedule(this, permission, world, expiresAt);
+	}
 
-			manager.registerTask(task, lifeTime);
+	/**
+	 * Put timed permission into entity without scheduling its expiration
+	 * 
+	 * @param permission
+	 * @param world
+	 *            world name, "" for common space
+	 * @param expiresAt
+	 *            unix time in seconds, 0 if permission has no lifetime
+	 */
+	protected void restoreTimedPermission(String permission, String world, long expiresAt) {
+		List<String> permissions = timedPermissions.get(world);
+		if (permissions == null) {
+			List<String> created = new CopyOnWriteArrayList<String>();
+			permissions = timedPermissions.putIfAbsent(world, created);
+
+			if (permissions == null) {
+				permissions = created;
+			}
+		}
 
-			timedPermissionsTime.put(world + ":" + permission, System.currentTimeMillis() / 1000L + lifeTime);
+		if (!permissions.contains(permission)) {
+			permissions.add(permission);
 		}
 
+		if (expiresAt > 0) {
+			timedPermissionsTime.put(world + ":" + permission, expiresAt);
+		} else {
+			timedPermissionsTime.remove(world + ":" + permission);
+		}
 	}
 
 	/*
@@ -491,12 +519,30 @@ public abstract class PermissionEntity implements IPermissionEntity {
 			world = "";
 		}
 
-		if (!timedPermissions.containsKey(world)) {
+		manager.getTimedPermissionScheduler().cancel(this, permission, world);
+		dropTimedPermission(permission, world);
+	}
+
+	/**
+	 * Remove batch of expired timed permissions
+	 * 
+	 * @param grants
+	 *            expired grants of this entity
+	 */
+	protected void expireTimedPermissions(List<TimedPermissionScheduler.Grant> grants) {
+		for (TimedPermissionScheduler.Grant grant : grants) {
+			dropTimedPermission(grant.getPermission(), grant.getWorld());
+		}
+	}
+
+	protected void dropTimedPermission(String permission, String world) {
+		List<String> permissions = timedPermissions.get(world);
+		if (permissions == null) {
 			return;
 		}
 
-		timedPermissions.get(world).remove(permission);
-		timedPermissions.remove(world + ":" + permission);
+		permissions.remove(permission);
+		timedPermissionsTime.remove(world + ":" + permission);
 	}
 
 	/*
@@ -564,13 +610,28 @@ public abstract class PermissionEntity implements IPermissionEntity {
 	 */
 	@Override
 	public String getMatchingExpression(String[] permissions, String permission) {
-		for (String expression : permissions) {
-			if (isMatches(expression, permission, true)) {
-				return expression;
+		int index = getMatchingIndex(permissions, permission);
+
+		return index < 0 ? null : permissions[index];
+	}
+
+	/**
+	 * Return index of first expression which matches permission
+	 * 
+	 * @param permissions
+	 *            expressions to check
+	 * @param permission
+	 *            permission node
+	 * @return index of matched expression or -1
+	 */
+	protected int getMatchingIndex(String[] permissions, String permission) {
+		for (int i = 0; i < permissions.length; i++) {
+			if (isMatches(permissions[i], permission, true)) {
+				return i;
 			}
 		}
 
-		return null;
+		return -1;
 	}
 
 	/*
@@ -36,6 +36,7 @@ public abstract class PermissionGroup extends PermissionEntity implements Compar
 
 	protected int weight = 0;
 	protected boolean dirtyWeight = true;
+	protected volatile GroupSnapshot snapshot;
 
 	public PermissionGroup(String groupName, PermissionManager manager) {
 		super(groupName, manager);
@@ -217,6 +218,20 @@ public abstract class PermissionGroup extends PermissionEntity implements Compar
 	 * @return array of groups objects
 	 */
 	public PermissionGroup[] getParentGroups(String worldName) {
+		GroupSnapshot cache = getSnapshot();
+		String worldKey = GroupSnapshot.worldKey(worldName);
+
+		PermissionGroup[] parents = cache.parents.get(worldKey);
+		if (parents == null) {
+			parents = getParentGroupsImpl(worldName);
+			cache.addGroupDependencies(parents, worldName);
+			cache.parents.put(worldKey, parents);
+		}
+
+		return parents.clone();
+	}
+
+	protected PermissionGroup[] getParentGroupsImpl(String worldName) {
 		List<PermissionGroup> parentGroups = new LinkedList<PermissionGroup>();
 
 		for (String parentGroup : getParentGroupsNamesImpl(worldName)) {
@@ -469,6 +484,19 @@ public abstract class PermissionGroup extends PermissionEntity implements Compar
 	 */
 	@Override
 	public String getPrefix(String worldName) {
+		GroupSnapshot cache = getSnapshot();
+		String worldKey = GroupSnapshot.worldKey(worldName);
+
+		String prefix = cache.prefixes.get(worldKey);
+		if (prefix == null) {
+			prefix = getPrefixImpl(worldName);
+			cache.prefixes.put(worldKey, prefix);
+		}
+
+		return prefix;
+	}
+
+	protected String getPrefixImpl(String worldName) {
 		// @TODO This method should be refactored
 
 		String localPrefix = this.getOwnPrefix(worldName);
@@ -507,6 +535,19 @@ public abstract class PermissionGroup extends PermissionEntity implements Compar
 
 	@Override
 	public String getSuffix(String worldName) {
+		GroupSnapshot cache = getSnapshot();
+		String worldKey = GroupSnapshot.worldKey(worldName);
+
+		String suffix = cache.suffixes.get(worldKey);
+		if (suffix == null) {
+			suffix = getSuffixImpl(worldName);
+			cache.suffixes.put(worldKey, suffix);
+		}
+
+		return suffix;
+	}
+
+	protected String getSuffixImpl(String worldName) {
 		// @TODO This method should be refactored
 
 		String localSuffix = this.getOwnSuffix(worldName);
@@ -545,9 +586,49 @@ public abstract class PermissionGroup extends PermissionEntity implements Compar
 
 	@Override
 	public String[] getPermissions(String world) {
-		List<String> permissions = new LinkedList<String>();
-		getInheritedPermissions(world, permissions, true, false, true);
-		return permissions.toArray(new String[0]);
+		return getInheritedPermissions(world, true);
+	}
+
+	/**
+	 * Matches against memoized permissions array, so list matchers compile it
+	 * only once per snapshot
+	 */
+	@Override
+	public String getMatchingExpression(String permission, String world) {
+		String[] permissions = getPermissions(world);
+		PermissionMatcher matcher = manager.getPermissionMatcher();
+
+		if (matcher instanceof PermissionListMatcher) {
+			return ((PermissionListMatcher) matcher).compile(permissions).getMatchingExpression(permission);
+		}
+
+		return getMatchingExpression(permissions, permission);
+	}
+
+	/**
+	 * Return memoized permissions of group with inherited ones
+	 * 
+	 * @param worldName
+	 * @param firstStep
+	 *            false if permissions are collected for descendant group,
+	 *            non-inheritable permissions are filtered then
+	 * @return permissions array, should not be modified
+	 */
+	protected String[] getInheritedPermissions(String worldName, boolean firstStep) {
+		GroupSnapshot cache = getSnapshot();
+		String worldKey = GroupSnapshot.worldKey(worldName);
+		Map<String, String[]> memo = firstStep ? cache.permissions : cache.inheritablePermissions;
+
+		String[] permissions = memo.get(worldKey);
+		if (permissions == null) {
+			List<String> inherited = new LinkedList<String>();
+			getInheritedPermissions(worldName, inherited, true, false, firstStep);
+
+			permissions = inherited.toArray(new String[0]);
+			memo.put(worldKey, permissions);
+		}
+
+		return permissions;
 	}
 
 	@Override
@@ -581,21 +662,19 @@ public abstract class PermissionGroup extends PermissionEntity implements Compar
 			copyFilterPermissions(NON_INHERITABLE_PREFIX, permissions, getOwnPermissions(worldName));
 		}
 
-		if (worldName != null) {
-			// World inheritance
-			for (String parentWorld : manager.getWorldInheritance(worldName)) {
+		if (worldName != null && !worldInheritance) {
+			// World inheritance, closure is already transitive
+			for (String parentWorld : manager.getWorldInheritanceClosure(worldName)) {
 				getInheritedPermissions(parentWorld, permissions, false, true, firstStep);
 			}
 			// Common permission
-			if (!worldInheritance) {
-				getInheritedPermissions(null, permissions, false, true, firstStep);
-			}
+			getInheritedPermissions(null, permissions, false, true, firstStep);
 		}
 
 		// Group inhertance
 		if (groupInheritance) {
 			for (PermissionGroup group : this.getParentGroups(worldName)) {
-				group.getInheritedPermissions(worldName, permissions, true, false, false);
+				permissions.addAll(Arrays.asList(group.getInheritedPermissions(worldName, false)));
 			}
 		}
 	}
@@ -623,10 +702,20 @@ public abstract class PermissionGroup extends PermissionEntity implements Compar
 		clearMembersCache();
 	}
 
+	@Override
+	protected void expireTimedPermissions(List<TimedPermissionScheduler.Grant> grants) {
+		super.expireTimedPermissions(grants);
+
+		clearMembersCache();
+	}
+
+	/**
+	 * Invalidate cached data of this group, its descendants and users who
+	 * inherit it (directly or through child groups). Data is resolved again
+	 * on next access.
+	 */
 	protected void clearMembersCache() {
-		for (PermissionUser user : this.getUsers()) {
-			user.clearCache();
-		}
+		manager.invalidateGroup(getName());
 	}
 
 	@Override
@@ -638,6 +727,8 @@ public abstract class PermissionGroup extends PermissionEntity implements Compar
 		clearChildren(null);
 
 		removeGroup();
+
+		manager.removeFromGroupIndex(this);
 	}
 
 	private void clearChildren(String worldName) {
@@ -655,6 +746,19 @@ public abstract class PermissionGroup extends PermissionEntity implements Compar
 
 	@Override
 	public String getOption(String optionName, String worldName, String defaultValue) {
+		GroupSnapshot cache = getSnapshot();
+		String cacheIndex = worldName + "|" + optionName;
+
+		String value = cache.options.get(cacheIndex);
+		if (value == null) {
+			value = getOptionImpl(optionName, worldName);
+			cache.options.put(cacheIndex, value != null ? value : GroupSnapshot.NO_VALUE);
+		}
+
+		return value == GroupSnapshot.NO_VALUE || value == null ? defaultValue : value;
+	}
+
+	protected String getOptionImpl(String optionName, String worldName) {
 		String value = this.getOwnOption(optionName, worldName, null);
 		if (value != null) {
 			return value;
@@ -684,7 +788,23 @@ public abstract class PermissionGroup extends PermissionEntity implements Compar
 		}
 
 		// Nothing found
-		return defaultValue;
+		return null;
+	}
+
+	/**
+	 * Return current snapshot of resolved data, stale snapshot is replaced
+	 * with empty one
+	 * 
+	 * @return up to date snapshot
+	 */
+	protected GroupSnapshot getSnapshot() {
+		GroupSnapshot cache = snapshot;
+
+		if (cache == null || !cache.isValid(manager)) {
+			snapshot = cache = new GroupSnapshot(getName(), manager.getGeneration());
+		}
+
+		return cache;
 	}
 
 	@Override
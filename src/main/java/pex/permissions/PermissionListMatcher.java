@@ -0,0 +1,18 @@
+package pex.permissions;
+
+/**
+ * Permission matcher which is able to compile whole list of expressions, so
+ * first matching expression could be found in one pass over permission node.
+ */
+public interface PermissionListMatcher extends PermissionMatcher {
+
+	/**
+	 * Compiles expressions into trie
+	 *
+	 * @param expressions
+	 *            permission expressions in list order
+	 * @return compiled expressions
+	 */
+	public PermissionTrie compile(String[] expressions);
+
+}
@@ -18,15 +18,47 @@
  */
 package pex.permissions;
 
-import java.util.HashMap;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
+import java.util.TreeMap;
 import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.WorldServer;
 import net.minecraftforge.common.Configuration;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.Uninterruptibles;
+
 /**
  * 
  * @author t3hk0d3
@@ -34,24 +66,68 @@ import net.minecraftforge.common.Configuration;
 public class PermissionManager {
 
 	public final static int TRANSIENT_PERMISSION = 0;
+	public final static int DEFAULT_USER_CACHE_SIZE = 500;
+	public final static int DEFAULT_USER_IDLE_TIME = 900; // seconds
+	protected final static int EVICTION_PERIOD = 60; // seconds
+	public final static int DEFAULT_IO_THREADS = 2;
+	protected final static int SHUTDOWN_TIMEOUT = 30; // seconds
+	public final static int DEFAULT_RECONNECT_GRACE_TIME = 120; // seconds
+
+	/**
+	 * Runs listeners in thread which completes future
+	 */
+	public final static Executor DIRECT_EXECUTOR = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
 	protected static final Logger logger = Logger.getLogger("Minecraft");
-	protected Map<String, PermissionUser> users = new HashMap<String, PermissionUser>();
-	protected Map<String, PermissionGroup> groups = new HashMap<String, PermissionGroup>();
-	protected Map<String, PermissionGroup> defaultGroups = new HashMap<String, PermissionGroup>();
-	protected PermissionBackend backend = null;
+	protected volatile PermissionModel model = null;
+	protected final ThreadLocal<PermissionModel> buildingModel = new ThreadLocal<PermissionModel>();
+	protected final Object reloadLock = new Object();
+	protected final Set<String> pinnedUsers = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 	protected Configuration config;
 	protected Timer timer;
+	protected final TimedPermissionScheduler timedScheduler = new TimedPermissionScheduler(this);
+	protected ExecutorService ioExecutor;
+	protected final ConcurrentMap<String, ListenableFuture<PermissionUser>> pendingLoads = new ConcurrentHashMap<String, ListenableFuture<PermissionUser>>();
 	protected boolean debugMode = false;
 	protected boolean allowOps = false;
+	protected boolean loadingFallback = false;
+	protected int decisionCacheSize = 1000;
+	protected int userCacheSize = DEFAULT_USER_CACHE_SIZE;
+	protected int userIdleTime = DEFAULT_USER_IDLE_TIME;
+	protected int reconnectGraceTime = DEFAULT_RECONNECT_GRACE_TIME;
+
+	protected volatile long generation = 0;
+	protected volatile long globalGeneration = 0;
+	protected final Map<String, Long> groupGenerations = new ConcurrentHashMap<String, Long>();
 
 	protected PermissionMatcher matcher = new RegExpMatcher();
 
 	public PermissionManager(Configuration config) {
 		this.config = config;
-		initBackend();
 
 		debugMode = config.get("permissions", "debug", debugMode).getBoolean(debugMode);
 		allowOps = config.get("permissions", "allowOps", allowOps).getBoolean(allowOps);
+
+		int matcherCacheSize = config.get("permissions", "matcherCacheSize", RegExpMatcher.DEFAULT_CACHE_SIZE).getInt(RegExpMatcher.DEFAULT_CACHE_SIZE);
+		matcher = new RegExpMatcher(matcherCacheSize);
+
+		decisionCacheSize = config.get("permissions", "decisionCacheSize", decisionCacheSize).getInt(decisionCacheSize);
+
+		userCacheSize = config.get("permissions", "userCacheSize", userCacheSize).getInt(userCacheSize);
+		userIdleTime = config.get("permissions", "userIdleTime", userIdleTime).getInt(userIdleTime);
+		reconnectGraceTime = config.get("permissions", "reconnectGraceTime", reconnectGraceTime).getInt(reconnectGraceTime);
+
+		loadingFallback = config.get("permissions", "loadingFallback", loadingFallback).getBoolean(loadingFallback);
+
+		int ioThreads = config.get("permissions", "ioThreads", DEFAULT_IO_THREADS).getInt(DEFAULT_IO_THREADS);
+		ioExecutor = createIOExecutor(Math.max(1, ioThreads));
+
+		initBackend();
+		timedScheduler.start();
 	}
 
 	/**
@@ -64,7 +140,7 @@ public class PermissionManager {
 	 * @return true on success false otherwise
 	 */
 	public boolean has(EntityPlayer player, String permission) {
-		return this.has(player.username, permission, String.valueOf(player.dimension));
+		return this.has(player.username, permission, getWorldName(player.dimension));
 	}
 
 	/**
@@ -103,6 +179,71 @@ public class PermissionManager {
 		return user.has(permission, world);
 	}
 
+	/**
+	 * Check several permissions of player at once. User is resolved once and
+	 * all permissions are checked against the same snapshot of its data.
+	 * 
+	 * @param playerName
+	 *            player name
+	 * @param world
+	 *            world's name as string
+	 * @param permissions
+	 *            permissions to check
+	 * @return bit set, bit i is set if player has permissions[i]
+	 */
+	public BitSet checkMany(String playerName, String world, String[] permissions) {
+		PermissionUser user = this.getUser(playerName);
+
+		if (user == null) {
+			return new BitSet(permissions.length);
+		}
+
+		return user.has(permissions, world);
+	}
+
+	/**
+	 * Check if player has all of permissions in world
+	 * 
+	 * @return true if every permission is granted
+	 */
+	public boolean hasAll(String playerName, String world, String[] permissions) {
+		return checkMany(playerName, world, permissions).cardinality() == permissions.length;
+	}
+
+	/**
+	 * Check if player has at least one of permissions in world
+	 * 
+	 * @return true if any permission is granted
+	 */
+	public boolean hasAny(String playerName, String world, String[] permissions) {
+		return !checkMany(playerName, world, permissions).isEmpty();
+	}
+
+	/**
+	 * Return players which have permission in world
+	 * 
+	 * @param playerNames
+	 *            players to check
+	 * @param world
+	 *            world's name as string
+	 * @param permission
+	 *            permission to check
+	 * @return list of player names which have permission, in original order
+	 */
+	public List<String> filterPlayers(Collection<String> playerNames, String world, String permission) {
+		List<String> result = new ArrayList<String>(playerNames.size());
+
+		for (String playerName : playerNames) {
+			PermissionUser user = this.getUser(playerName);
+
+			if (user != null && user.has(permission, world)) {
+				result.add(playerName);
+			}
+		}
+
+		return result;
+	}
+
 	/**
 	 * Return user's object
 	 * 
@@ -115,19 +256,7 @@ public class PermissionManager {
 			return null;
 		}
 
-		PermissionUser user = users.get(username.toLowerCase());
-
-		if (user == null) {
-			user = backend.getUser(username);
-			if (user != null) {
-				user.initialize();
-				users.put(username.toLowerCase(), user);
-			} else {
-				throw new IllegalStateException("User " + username + " is null");
-			}
-		}
-
-		return user;
+		return getUserRegistry().get(username);
 	}
 
 	/**
@@ -141,13 +270,242 @@ public class PermissionManager {
 		return this.getUser(player.username);
 	}
 
+	/**
+	 * Return user's object without blocking caller. Loaded user is returned
+	 * at once, otherwise user is loaded on I/O thread. Concurrent requests
+	 * for same user share one load.
+	 * 
+	 * @param username
+	 *            get PermissionUser with given name
+	 * @return future of PermissionUser, null value if name is empty
+	 */
+	public ListenableFuture<PermissionUser> getUserAsync(final String username) {
+		if (username == null || username.isEmpty()) {
+			return Futures.immediateFuture(null);
+		}
+
+		PermissionUser user = getUserRegistry().getLoaded(username);
+		if (user != null) {
+			return Futures.immediateFuture(user);
+		}
+
+		final String key = username.toLowerCase();
+
+		ListenableFuture<PermissionUser> pending = pendingLoads.get(key);
+		if (pending != null) {
+			return pending;
+		}
+
+		final ListenableFutureTask<PermissionUser> task = ListenableFutureTask.create(new Callable<PermissionUser>() {
+			@Override
+			public PermissionUser call() {
+				return getUser(username);
+			}
+		});
+
+		pending = pendingLoads.putIfAbsent(key, task);
+		if (pending != null) {
+			return pending;
+		}
+
+		task.addListener(new Runnable() {
+			@Override
+			public void run() {
+				pendingLoads.remove(key, task);
+			}
+		}, DIRECT_EXECUTOR);
+
+		submit(task);
+
+		return task;
+	}
+
+	/**
+	 * Check if player with name has permission in world without blocking
+	 * caller
+	 * 
+	 * @param playerName
+	 *            player name
+	 * @param permission
+	 *            permission as string to check against
+	 * @param world
+	 *            world's name as string
+	 * @return future of check result
+	 */
+	public ListenableFuture<Boolean> hasAsync(final String playerName, final String permission, final String world) {
+		PermissionUser user = playerName == null ? null : getUserRegistry().getLoaded(playerName);
+		if (user != null) {
+			return Futures.immediateFuture(user.has(permission, world));
+		}
+
+		ListenableFutureTask<Boolean> task = ListenableFutureTask.create(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return has(playerName, permission, world);
+			}
+		});
+
+		submit(task);
+
+		return task;
+	}
+
+	/**
+	 * Check permission of loaded user, never waits for backend. If user is
+	 * not loaded yet its load is started in background and fallback is
+	 * returned.
+	 * 
+	 * @param playerName
+	 *            player name
+	 * @param permission
+	 *            permission as string to check against
+	 * @param world
+	 *            world's name as string
+	 * @param fallback
+	 *            result while user is loading
+	 * @return check result or fallback
+	 */
+	public boolean hasIfLoaded(String playerName, String permission, String world, boolean fallback) {
+		PermissionUser user = playerName == null ? null : getUserRegistry().getLoaded(playerName);
+
+		if (user == null) {
+			getUserAsync(playerName);
+			return fallback;
+		}
+
+		return user.has(permission, world);
+	}
+
+	/**
+	 * Same as hasIfLoaded with fallback from config (loadingFallback)
+	 */
+	public boolean hasIfLoaded(String playerName, String permission, String world) {
+		return hasIfLoaded(playerName, permission, world, loadingFallback);
+	}
+
+	/**
+	 * Load user and resolve its data for dimension it would spawn in, on I/O
+	 * thread. Loaded user is kept in registry, so first check of main thread
+	 * finds it ready.
+	 * 
+	 * @param username
+	 *            name of connecting player
+	 * @return future of warmed PermissionUser
+	 */
+	public ListenableFuture<PermissionUser> prewarmUser(final String username) {
+		ListenableFutureTask<PermissionUser> task = ListenableFutureTask.create(new Callable<PermissionUser>() {
+			@Override
+			public PermissionUser call() {
+				PermissionUser user = getUser(username);
+
+				if (user != null) {
+					user.warm(getWorldName(getSavedDimension(username)));
+				}
+
+				return user;
+			}
+		});
+
+		submit(task);
+
+		return task;
+	}
+
+	/**
+	 * Return dimension stored in player's save data. Player who is still
+	 * online (quick relog) is not read from disk, as main thread is about to
+	 * rewrite their data, current dimension is returned instead. Save data is
+	 * read at once and unreadable data is silently treated as missing.
+	 * 
+	 * @param username
+	 * @return dimension id, 0 for new players
+	 */
+	protected int getSavedDimension(String username) {
+		MinecraftServer server = MinecraftServer.getServer();
+		if (server == null || server.worldServers == null || server.worldServers.length == 0) {
+			return 0;
+		}
+
+		try {
+			EntityPlayer player = server.getConfigurationManager().getPlayerForUsername(username);
+			if (player != null) {
+				return player.dimension;
+			}
+		} catch (RuntimeException e) { // player list is changed by main thread
+			return 0;
+		}
+
+		File playerFile = new File(new File(server.worldServers[0].getSaveHandler().getWorldDirectory(), "players"), username + ".dat");
+		if (!playerFile.exists()) {
+			return 0;
+		}
+
+		try {
+			byte[] contents = new byte[(int) playerFile.length()];
+
+			DataInputStream input = new DataInputStream(new FileInputStream(playerFile));
+			try {
+				input.readFully(contents);
+			} finally {
+				input.close();
+			}
+
+			NBTTagCompound data = CompressedStreamTools.decompress(contents);
+
+			return data != null && data.hasKey("Dimension") ? data.getInteger("Dimension") : 0;
+		} catch (Exception e) { // replaced or being written
+			return 0;
+		}
+	}
+
+	/**
+	 * Start background loading of users
+	 * 
+	 * @param usernames
+	 *            names of users, loaded ones are skipped
+	 * @return futures of users in the same order
+	 */
+	public List<ListenableFuture<PermissionUser>> preload(Collection<String> usernames) {
+		List<ListenableFuture<PermissionUser>> result = new ArrayList<ListenableFuture<PermissionUser>>(usernames.size());
+
+		for (String username : usernames) {
+			result.add(getUserAsync(username));
+		}
+
+		return result;
+	}
+
+	/**
+	 * Run task on I/O executor, or in current thread if executor is stopped
+	 */
+	protected void submit(Runnable task) {
+		try {
+			ioExecutor.execute(task);
+		} catch (RejectedExecutionException e) {
+			task.run();
+		}
+	}
+
+	protected static ExecutorService createIOExecutor(int threads) {
+		final AtomicInteger counter = new AtomicInteger();
+
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "PermissionsEx-IO-" + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
 	/**
 	 * Return all registered user objects
 	 * 
 	 * @return PermissionUser array
 	 */
 	public PermissionUser[] getUsers() {
-		return backend.getUsers();
+		return getBackend().getUsers();
 	}
 
 	/**
@@ -158,11 +516,11 @@ public class PermissionManager {
 	 * @return PermissionUser array
 	 */
 	public PermissionUser[] getUsers(String groupName, String worldName) {
-		return backend.getUsers(groupName, worldName);
+		return this.getUsers(groupName, worldName, false);
 	}
 
 	public PermissionUser[] getUsers(String groupName) {
-		return backend.getUsers(groupName);
+		return this.getUsers(groupName, false);
 	}
 
 	/**
@@ -175,11 +533,39 @@ public class PermissionManager {
 	 * @return PermissionUser array for groupnName
 	 */
 	public PermissionUser[] getUsers(String groupName, String worldName, boolean inheritance) {
-		return backend.getUsers(groupName, worldName, inheritance);
+		if (isDefaultGroup(groupName, inheritance)) { // default group members are not listed
+			return getBackend().getUsers(groupName, worldName, inheritance);
+		}
+
+		Set<PermissionUser> users = new HashSet<PermissionUser>();
+
+		for (String userName : getGroupIndex().getMembers(groupName, inheritance)) {
+			PermissionUser user = this.getUser(userName);
+
+			if (user.inGroup(groupName, worldName, inheritance)) {
+				users.add(user);
+			}
+		}
+
+		return users.toArray(new PermissionUser[0]);
 	}
 
 	public PermissionUser[] getUsers(String groupName, boolean inheritance) {
-		return backend.getUsers(groupName, inheritance);
+		if (isDefaultGroup(groupName, inheritance)) {
+			return getBackend().getUsers(groupName, inheritance);
+		}
+
+		Set<PermissionUser> users = new HashSet<PermissionUser>();
+
+		for (String userName : getGroupIndex().getMembers(groupName, inheritance)) {
+			PermissionUser user = this.getUser(userName);
+
+			if (user.inGroup(groupName, inheritance)) {
+				users.add(user);
+			}
+		}
+
+		return users.toArray(new PermissionUser[0]);
 	}
 
 	/**
@@ -189,7 +575,19 @@ public class PermissionManager {
 	 *            user's name
 	 */
 	public void resetUser(String userName) {
-		users.remove(userName.toLowerCase());
+		getUserRegistry().remove(userName);
+	}
+
+	/**
+	 * Release user of player who logged out. User is kept for reconnect grace
+	 * time (reconnectGraceTime), so player who rejoins gets resolved data
+	 * back without backend access.
+	 * 
+	 * @param userName
+	 *            user's name
+	 */
+	public void departUser(String userName) {
+		getUserRegistry().depart(userName, reconnectGraceTime * 1000L);
 	}
 
 	/**
@@ -226,19 +624,7 @@ public class PermissionManager {
 			return null;
 		}
 
-		PermissionGroup group = groups.get(groupname.toLowerCase());
-
-		if (group == null) {
-			group = backend.getGroup(groupname);
-			if (group != null) {
-				group.initialize();
-				groups.put(groupname.toLowerCase(), group);
-			} else {
-				throw new IllegalStateException("Group " + groupname + " is null");
-			}
-		}
-
-		return group;
+		return getGroupRegistry().get(groupname);
 	}
 
 	/**
@@ -247,7 +633,7 @@ public class PermissionManager {
 	 * @return PermissionGroup array
 	 */
 	public PermissionGroup[] getGroups() {
-		return backend.getGroups();
+		return getBackend().getGroups();
 	}
 
 	/**
@@ -258,11 +644,11 @@ public class PermissionManager {
 	 * @return PermissionGroup array
 	 */
 	public PermissionGroup[] getGroups(String groupName, String worldName) {
-		return backend.getGroups(groupName, worldName);
+		return getBackend().getGroups(groupName, worldName);
 	}
 
 	public PermissionGroup[] getGroups(String groupName) {
-		return backend.getGroups(groupName);
+		return getBackend().getGroups(groupName);
 	}
 
 	/**
@@ -275,11 +661,39 @@ public class PermissionManager {
 	 * @return PermissionGroup array for specified groupName
 	 */
 	public PermissionGroup[] getGroups(String groupName, String worldName, boolean inheritance) {
-		return backend.getGroups(groupName, worldName, inheritance);
+		List<PermissionGroup> groups = new LinkedList<PermissionGroup>();
+
+		for (String childName : getGroupIndex().getChildGroups(groupName, inheritance)) {
+			PermissionGroup group = this.getGroup(childName);
+
+			if (!groups.contains(group) && group.isChildOf(groupName, worldName, inheritance)) {
+				groups.add(group);
+			}
+		}
+
+		return groups.toArray(new PermissionGroup[0]);
 	}
 
 	public PermissionGroup[] getGroups(String groupName, boolean inheritance) {
-		return backend.getGroups(groupName, inheritance);
+		List<PermissionGroup> groups = new LinkedList<PermissionGroup>();
+
+		for (String childName : getGroupIndex().getChildGroups(groupName, inheritance)) {
+			PermissionGroup group = this.getGroup(childName);
+
+			if (group.isChildOf(groupName, null, inheritance)) {
+				groups.add(group);
+				continue;
+			}
+
+			for (WorldServer world : MinecraftServer.getServer().worldServers) {
+				if (group.isChildOf(groupName, String.valueOf(world.provider.dimensionId), inheritance)) {
+					groups.add(group);
+					break;
+				}
+			}
+		}
+
+		return groups.toArray(new PermissionGroup[0]);
 	}
 
 	/**
@@ -289,6 +703,7 @@ public class PermissionManager {
 	 */
 	public PermissionGroup getDefaultGroup(String worldName) {
 		String worldIndex = worldName != null ? worldName : "";
+		Map<String, PermissionGroup> defaultGroups = getModel().defaultGroups;
 
 		if (!defaultGroups.containsKey(worldIndex)) {
 			defaultGroups.put(worldIndex, this.getDefaultGroup(worldName, this.getDefaultGroup(null, null)));
@@ -302,7 +717,7 @@ public class PermissionManager {
 	}
 
 	private PermissionGroup getDefaultGroup(String worldName, PermissionGroup fallback) {
-		PermissionGroup defaultGroup = backend.getDefaultGroup(worldName);
+		PermissionGroup defaultGroup = getBackend().getDefaultGroup(worldName);
 
 		if (defaultGroup == null && worldName == null) {
 			throw new IllegalStateException("No default group defined. Use \"pex set default group <group> [world]\" to define default group.");
@@ -332,13 +747,14 @@ public class PermissionManager {
 	 *            PermissionGroup group object
 	 */
 	public void setDefaultGroup(PermissionGroup group, String worldName) {
-		if (group == null || group.equals(defaultGroups)) {
+		if (group == null || group.equals(getModel().defaultGroups)) {
 			return;
 		}
 
-		backend.setDefaultGroup(group, worldName);
+		getBackend().setDefaultGroup(group, worldName);
 
-		defaultGroups.clear();
+		getModel().defaultGroups.clear();
+		invalidateCaches();
 
 //		this.callEvent(PermissionSystemEvent.Action.DEFAULTGROUP_CHANGED);
 //		this.callEvent(new PermissionEntityEvent(group, PermissionEntityEvent.Action.DEFAULTGROUP_CHANGED));
@@ -355,7 +771,7 @@ public class PermissionManager {
 	 *            group's name
 	 */
 	public void resetGroup(String groupName) {
-		groups.remove(groupName);
+		getGroupRegistry().remove(groupName);
 	}
 
 	/**
@@ -378,6 +794,281 @@ public class PermissionManager {
 		return debugMode;
 	}
 
+	/**
+	 * Return registry of loaded users, it keeps load statistics
+	 */
+	public EntityRegistry<PermissionUser> getUserRegistry() {
+		return getModel().users;
+	}
+
+	/**
+	 * Return registry of loaded groups, it keeps load statistics
+	 */
+	public EntityRegistry<PermissionGroup> getGroupRegistry() {
+		return getModel().groups;
+	}
+
+	/**
+	 * Return current permission model. Thread which builds new model gets
+	 * the one it builds.
+	 * 
+	 * @return permission model
+	 */
+	public PermissionModel getModel() {
+		PermissionModel building = buildingModel.get();
+
+		return building != null ? building : model;
+	}
+
+	/**
+	 * Return current cache generation. Generation is increased on every
+	 * invalidation, cached data stamped with older generation than
+	 * invalidation of its dependency is stale.
+	 * 
+	 * @return current generation
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Return generation of last global invalidation
+	 */
+	public long getGlobalGeneration() {
+		return globalGeneration;
+	}
+
+	/**
+	 * Return generation of last change of specified group
+	 * 
+	 * @param groupName
+	 *            group's name
+	 * @return generation or 0 if group was not changed
+	 */
+	public long getGroupGeneration(String groupName) {
+		Long groupGeneration = groupGenerations.get(groupName.toLowerCase());
+
+		return groupGeneration == null ? 0 : groupGeneration;
+	}
+
+	/**
+	 * Invalidate all cached user data. Data is resolved again on next access.
+	 */
+	public synchronized void invalidateCaches() {
+		long next = generation + 1;
+		globalGeneration = next;
+		generation = next;
+	}
+
+	/**
+	 * Invalidate cached data of users which depend on specified group
+	 * 
+	 * @param groupName
+	 *            group's name
+	 */
+	public synchronized void invalidateGroup(String groupName) {
+		long next = generation + 1;
+		groupGenerations.put(groupName.toLowerCase(), next);
+		generation = next; // publish after group generation is stored
+	}
+
+	/**
+	 * Return reverse index of group inheritance and membership. Index is built
+	 * on I/O thread when model is published, if it is not done yet it is built
+	 * on calling thread or awaited.
+	 * 
+	 * @return group index
+	 */
+	public GroupIndex getGroupIndex() {
+		PermissionModel model = getModel();
+		GroupIndex index = model.groupIndex;
+
+		if (index != null) {
+			return index;
+		}
+
+		FutureTask<GroupIndex> build = buildGroupIndex(model);
+		build.run(); // no-op if build is running or done already
+
+		try {
+			return Uninterruptibles.getUninterruptibly(build);
+		} catch (ExecutionException e) {
+			synchronized (model) {
+				if (model.groupIndexBuild == build) { // retried on next use
+					model.groupIndexBuild = null;
+				}
+			}
+
+			throw new IllegalStateException("Error building group index", e.getCause());
+		}
+	}
+
+	/**
+	 * Return build task of group index of model, task is created if there is
+	 * none yet
+	 */
+	protected FutureTask<GroupIndex> buildGroupIndex(final PermissionModel model) {
+		synchronized (model) {
+			if (model.groupIndexBuild == null) {
+				model.groupIndexBuild = new FutureTask<GroupIndex>(new Callable<GroupIndex>() {
+					@Override
+					public GroupIndex call() {
+						return collectGroupIndex(model);
+					}
+				});
+			}
+
+			return model.groupIndexBuild;
+		}
+	}
+
+	/**
+	 * Read group inheritance and membership of all users into new index and
+	 * publish it. Backends which keep users in many files could take a while,
+	 * updates made meanwhile are queued by model.
+	 */
+	protected GroupIndex collectGroupIndex(PermissionModel model) {
+		GroupIndex index = new GroupIndex();
+
+		for (PermissionGroup group : model.backend.getGroups()) {
+			index.updateGroup(group);
+		}
+
+		Map<String, Set<String>> userGroups = model.backend.getUserGroupNames();
+		if (userGroups != null) { // users are not loaded
+			for (Map.Entry<String, Set<String>> entry : userGroups.entrySet()) {
+				index.updateUser(entry.getKey(), entry.getValue());
+			}
+		} else {
+			for (PermissionUser user : model.backend.getUsers()) {
+				index.updateUser(user);
+			}
+		}
+
+		model.publishGroupIndex(index);
+
+		return index;
+	}
+
+	/**
+	 * Update indexed groups of user. Should be called when user's groups are
+	 * changed.
+	 * 
+	 * @param user
+	 */
+	public void updateGroupIndex(PermissionUser user) {
+		PermissionModel model = getModel();
+		GroupIndex index = model.groupIndex;
+
+		if (index == null) {
+			index = model.queueUserUpdate(user.getName(), user);
+		}
+
+		if (index != null) {
+			index.updateUser(user);
+		}
+	}
+
+	/**
+	 * Update indexed parents of group. Should be called when parent groups are
+	 * changed.
+	 * 
+	 * @param group
+	 */
+	public void updateGroupIndex(PermissionGroup group) {
+		PermissionModel model = getModel();
+		GroupIndex index = model.groupIndex;
+
+		if (index == null) {
+			index = model.queueGroupUpdate(group.getName(), group);
+		}
+
+		if (index != null) {
+			index.updateGroup(group);
+		}
+
+		updateRankLadderIndex(group);
+	}
+
+	/**
+	 * Remove user from group index. Should be called when user is removed.
+	 * 
+	 * @param user
+	 */
+	public void removeFromGroupIndex(PermissionUser user) {
+		PermissionModel model = getModel();
+		GroupIndex index = model.groupIndex;
+
+		if (index == null) {
+			index = model.queueUserUpdate(user.getName(), null);
+		}
+
+		if (index != null) {
+			index.removeUser(user.getName());
+		}
+	}
+
+	/**
+	 * Remove group from group index. Should be called when group is removed.
+	 * 
+	 * @param group
+	 */
+	public void removeFromGroupIndex(PermissionGroup group) {
+		PermissionModel model = getModel();
+		GroupIndex index = model.groupIndex;
+
+		if (index == null) {
+			index = model.queueGroupUpdate(group.getName(), null);
+		}
+
+		if (index != null) {
+			index.removeGroup(group.getName());
+		}
+
+		RankLadderIndex ladders = model.rankLadderIndex;
+		if (ladders != null) {
+			ladders.remove(group.getName());
+		}
+	}
+
+	protected boolean isDefaultGroup(String groupName, boolean inheritance) {
+		Set<String> groupNames = new HashSet<String>();
+		groupNames.add(groupName.toLowerCase());
+
+		if (inheritance) {
+			groupNames.addAll(getGroupIndex().getChildGroups(groupName, true));
+		}
+
+		for (PermissionGroup defaultGroup : getDefaultGroups()) {
+			if (defaultGroup != null && groupNames.contains(defaultGroup.getName().toLowerCase())) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	protected Set<PermissionGroup> getDefaultGroups() {
+		Set<PermissionGroup> groups = new HashSet<PermissionGroup>();
+
+		groups.add(this.getDefaultGroup(null));
+
+		for (WorldServer world : MinecraftServer.getServer().worldServers) {
+			groups.add(this.getDefaultGroup(String.valueOf(world.provider.dimensionId)));
+		}
+
+		return groups;
+	}
+
+	/**
+	 * Return maximum number of cached permission checks per user and world
+	 * 
+	 * @return decision cache size
+	 */
+	public int getDecisionCacheSize() {
+		return decisionCacheSize;
+	}
+
 	/**
 	 * Return groups of specified rank ladder
 	 * 
@@ -386,19 +1077,71 @@ public class PermissionManager {
 	 *         map if ladder does not exist
 	 */
 	public Map<Integer, PermissionGroup> getRankLadder(String ladderName) {
-		Map<Integer, PermissionGroup> ladder = new HashMap<Integer, PermissionGroup>();
+		Map<Integer, PermissionGroup> ladder = new TreeMap<Integer, PermissionGroup>();
 
-		for (PermissionGroup group : this.getGroups()) {
-			if (!group.isRanked()) {
-				continue;
+		for (Map.Entry<Integer, String> entry : getRankLadderIndex().getLadder(ladderName).entrySet()) {
+			ladder.put(entry.getKey(), this.getGroup(entry.getValue()));
+		}
+
+		return ladder;
+	}
+
+	/**
+	 * Return index of rank ladders, index is built on first use
+	 * 
+	 * @return rank ladder index
+	 */
+	public RankLadderIndex getRankLadderIndex() {
+		PermissionModel model = getModel();
+		RankLadderIndex index = model.rankLadderIndex;
+
+		if (index == null) {
+			synchronized (model) {
+				if (model.rankLadderIndex == null) {
+					index = new RankLadderIndex();
+
+					for (PermissionGroup group : model.backend.getGroups()) {
+						index.update(group);
+					}
+
+					model.rankLadderIndex = index;
+				}
+
+				index = model.rankLadderIndex;
 			}
+		}
+
+		return index;
+	}
+
+	/**
+	 * Update indexed rank and ladder of group and its descendants (ladder is
+	 * inherited). Should be called when rank, ladder or parents are changed.
+	 * 
+	 * @param group
+	 */
+	public void updateRankLadderIndex(PermissionGroup group) {
+		PermissionModel model = getModel();
+		RankLadderIndex index = model.rankLadderIndex;
+
+		if (index == null) {
+			return;
+		}
 
-			if (group.getRankLadder().equalsIgnoreCase(ladderName)) {
-				ladder.put(group.getRank(), group);
+		index.update(group);
+
+		GroupIndex inheritance = model.groupIndex;
+		if (inheritance == null) { // loaded groups only, user membership is not needed
+			inheritance = new GroupIndex();
+
+			for (PermissionGroup loaded : model.groups.getLoadedEntities()) {
+				inheritance.updateGroup(loaded);
 			}
 		}
 
-		return ladder;
+		for (String childName : inheritance.getChildGroups(group.getName(), true)) {
+			index.update(this.getGroup(childName));
+		}
 	}
 
 	/**
@@ -406,10 +1149,60 @@ public class PermissionManager {
 	 * 
 	 * @param worldName
 	 *            World name
-	 * @return Array of parent world, if world does not exist return empty array
+	 * @return Array of parent world, if world does not exist return empty
+	 *         array. Array is shared and should not be modified.
 	 */
 	public String[] getWorldInheritance(String worldName) {
-		return backend.getWorldInheritance(worldName);
+		return getWorldInheritance().getParents(worldName);
+	}
+
+	/**
+	 * Return all ancestors of world, ordered as they are checked
+	 * 
+	 * @param worldName
+	 *            World name
+	 * @return Array of ancestor worlds, should not be modified
+	 */
+	public String[] getWorldInheritanceClosure(String worldName) {
+		return getWorldInheritance().getClosure(worldName);
+	}
+
+	/**
+	 * Return all ancestors of dimension, ordered as they are checked
+	 * 
+	 * @param dimension
+	 *            dimension id
+	 * @return Array of ancestor worlds, should not be modified
+	 */
+	public String[] getWorldInheritanceClosure(int dimension) {
+		return getWorldInheritance().getClosure(dimension);
+	}
+
+	/**
+	 * Return world name of dimension without allocating new string on every
+	 * call
+	 * 
+	 * @param dimension
+	 *            dimension id
+	 * @return world name
+	 */
+	public String getWorldName(int dimension) {
+		return getWorldInheritance().getWorldName(dimension);
+	}
+
+	/**
+	 * Return compiled world inheritance, it is built lazily for current
+	 * model
+	 */
+	public WorldInheritance getWorldInheritance() {
+		PermissionModel model = getModel();
+		WorldInheritance inheritance = model.worldInheritance;
+
+		if (inheritance == null) {
+			model.worldInheritance = inheritance = new WorldInheritance(model.backend);
+		}
+
+		return inheritance;
 	}
 
 	/**
@@ -421,7 +1214,9 @@ public class PermissionManager {
 	 *            array of parent world names
 	 */
 	public void setWorldInheritance(String world, String[] parentWorlds) {
-		backend.setWorldInheritance(world, parentWorlds);
+		getBackend().setWorldInheritance(world, parentWorlds);
+		getModel().worldInheritance = null;
+		invalidateCaches();
 //		this.callEvent(PermissionSystemEvent.Action.WORLDINHERITANCE_CHANGED);
 	}
 
@@ -431,7 +1226,9 @@ public class PermissionManager {
 	 * @return current backend object
 	 */
 	public PermissionBackend getBackend() {
-		return backend;
+		PermissionModel model = getModel();
+
+		return model == null ? null : model.backend;
 	}
 
 	/**
@@ -442,15 +1239,34 @@ public class PermissionManager {
 	 *            name of backend to set to
 	 */
 	public void setBackend(String backendName) {
-		synchronized (this) {
-			clearCache();
+		PermissionBackend backend;
+
+		synchronized (reloadLock) {
+			PermissionBackend previous = getBackend();
+
 			backend = PermissionBackend.getBackend(backendName, this, config);
 			backend.initialize();
+
+			publishModel(buildModel(backend));
+
+			if (previous != null) {
+				previous.close();
+			}
 		}
 
+		initTimer();
+		timedScheduler.load(backend);
+
 //		this.callEvent(PermissionSystemEvent.Action.BACKEND_CHANGED);
 	}
 
+	/**
+	 * Return scheduler which keeps and expires timed permissions
+	 */
+	public TimedPermissionScheduler getTimedPermissionScheduler() {
+		return timedScheduler;
+	}
+
 	/**
 	 * Register new timer task
 	 * 
@@ -469,20 +1285,150 @@ public class PermissionManager {
 
 	/**
 	 * Reset all in-memory groups and users, clean up runtime stuff, reloads
-	 * backend
+	 * backend. New model is built in current thread, other threads use
+	 * previous model until new one is ready.
+	 * 
+	 * @return new permission model
 	 */
-	public void reset() {
-		clearCache();
+	public PermissionModel reset() {
+		PermissionModel next;
+
+		synchronized (reloadLock) {
+			PermissionBackend backend = getBackend();
 
-		if (backend != null) {
-			backend.reload();
+			backend.flush(); // new model reads stored data
+			next = buildModel(backend.reloaded());
+			publishModel(next);
+
+			if (next.backend != backend) {
+				backend.close();
+			}
 		}
+
+		initTimer();
 //		this.callEvent(PermissionSystemEvent.Action.RELOADED);
+
+		return next;
 	}
 
+	/**
+	 * Reload permissions on I/O thread, see reset()
+	 * 
+	 * @return future of new permission model
+	 */
+	public ListenableFuture<PermissionModel> reloadAsync() {
+		ListenableFutureTask<PermissionModel> task = ListenableFutureTask.create(new Callable<PermissionModel>() {
+			@Override
+			public PermissionModel call() {
+				return reset();
+			}
+		});
+
+		submit(task);
+
+		return task;
+	}
+
+	/**
+	 * Build complete model for backend: all groups are loaded and indexed,
+	 * online users are loaded. Lookups of building thread are resolved in
+	 * new model.
+	 * 
+	 * @param backend
+	 *            initialized backend
+	 * @return new model, not published yet
+	 */
+	protected PermissionModel buildModel(final PermissionBackend backend) {
+		long startTime = System.nanoTime();
+
+		EntityRegistry<PermissionUser> users = new EntityRegistry<PermissionUser>("User", pinnedUsers) {
+			@Override
+			protected PermissionUser create(String name) {
+				return backend.getUser(name);
+			}
+
+			@Override
+			protected void created(PermissionUser user) {
+				timedScheduler.restore(user);
+			}
+
+			@Override
+			protected void loaded(PermissionUser user) {
+				updateGroupIndex(user);
+			}
+		};
+		users.setLimits(userCacheSize, userIdleTime * 1000L);
+
+		EntityRegistry<PermissionGroup> groups = new EntityRegistry<PermissionGroup>("Group") {
+			@Override
+			protected PermissionGroup create(String name) {
+				return backend.getGroup(name);
+			}
+
+			@Override
+			protected void created(PermissionGroup group) {
+				timedScheduler.restore(group);
+			}
+
+			@Override
+			protected void loaded(PermissionGroup group) {
+				updateGroupIndex(group);
+			}
+		};
+
+		PermissionModel next = new PermissionModel(backend, users, groups);
+
+		buildingModel.set(next);
+		try {
+			backend.getGroups(); // loads every group
+			getRankLadderIndex();
+			getWorldInheritance();
+
+			for (String userName : pinnedUsers) {
+				getUser(userName);
+			}
+		} finally {
+			buildingModel.remove();
+		}
+
+		next.buildTime = (System.nanoTime() - startTime) / 1000000;
+
+		return next;
+	}
+
+	/**
+	 * Make model current, in one reference swap
+	 */
+	protected void publishModel(PermissionModel next) {
+		model = next;
+
+		submit(buildGroupIndex(next));
+
+		if (isDebug()) {
+			logger.info("[PermissionsEx] Permissions model built in " + next.getBuildTime() + "ms: " + next);
+		}
+	}
+
+	/**
+	 * Stop background tasks and wait for them, then write pending changes and
+	 * close backend
+	 */
 	public void end() {
-		reset();
+		timedScheduler.stop();
+
+		ioExecutor.shutdown();
+		try {
+			if (!ioExecutor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+				logger.warning("[PermissionsEx] I/O tasks were not finished in " + SHUTDOWN_TIMEOUT + " seconds");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		clearCache();
 		timer.cancel();
+
+		getBackend().close(); // writes pending changes
 	}
 
 	public void initTimer() {
@@ -491,12 +1437,26 @@ public class PermissionManager {
 		}
 
 		timer = new Timer("PermissionsEx-Cleaner");
+
+		// Evict offline users which were not used for a while
+		timer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				getUserRegistry().evictExpired();
+			}
+		}, EVICTION_PERIOD * 1000L, EVICTION_PERIOD * 1000L);
 	}
 
 	protected void clearCache() {
-		users.clear();
-		groups.clear();
-		defaultGroups.clear();
+		invalidateCaches();
+
+		PermissionModel model = getModel();
+		model.groupIndex = null;
+		model.rankLadderIndex = null;
+
+		model.users.clear();
+		model.groups.clear();
+		model.defaultGroups.clear();
 
 		// Close old timed Permission Timer
 		initTimer();
@@ -522,5 +1482,8 @@ public class PermissionManager {
 
 	public void setPermissionMatcher(PermissionMatcher matcher) {
 		this.matcher = matcher;
+
+		// compiled permissions belong to previous matcher
+		invalidateCaches();
 	}
 }
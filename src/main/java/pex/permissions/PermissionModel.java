@@ -0,0 +1,119 @@
+package pex.permissions;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Complete permission state of manager: backend with its data, loaded users
+ * and groups and indexes built from them.
+ *
+ * Manager reads everything through one model reference. Reload builds a new
+ * model aside and publishes it with one reference swap, checks which are in
+ * progress keep using previous model.
+ */
+public class PermissionModel {
+
+	protected final PermissionBackend backend;
+	protected final EntityRegistry<PermissionUser> users;
+	protected final EntityRegistry<PermissionGroup> groups;
+	protected final Map<String, PermissionGroup> defaultGroups = new HashMap<String, PermissionGroup>();
+
+	protected volatile GroupIndex groupIndex = null;
+	protected volatile RankLadderIndex rankLadderIndex = null;
+	protected volatile WorldInheritance worldInheritance = null;
+
+	/**
+	 * Group index build in progress and updates made meanwhile, guarded by
+	 * model lock. Null value stands for removed entity.
+	 */
+	protected FutureTask<GroupIndex> groupIndexBuild = null;
+	protected final Map<String, PermissionUser> pendingUsers = new HashMap<String, PermissionUser>();
+	protected final Map<String, PermissionGroup> pendingGroups = new HashMap<String, PermissionGroup>();
+
+	protected long buildTime = 0;
+
+	public PermissionModel(PermissionBackend backend, EntityRegistry<PermissionUser> users, EntityRegistry<PermissionGroup> groups) {
+		this.backend = backend;
+		this.users = users;
+		this.groups = groups;
+	}
+
+	public PermissionBackend getBackend() {
+		return backend;
+	}
+
+	public EntityRegistry<PermissionUser> getUserRegistry() {
+		return users;
+	}
+
+	public EntityRegistry<PermissionGroup> getGroupRegistry() {
+		return groups;
+	}
+
+	/**
+	 * Return built group index, or null. If index is being built, update of
+	 * user is queued and applied when build is done.
+	 *
+	 * @param userName
+	 * @param user
+	 *            updated user, null if user is removed
+	 */
+	protected synchronized GroupIndex queueUserUpdate(String userName, PermissionUser user) {
+		if (groupIndex == null && groupIndexBuild != null) {
+			pendingUsers.put(userName.toLowerCase(), user);
+		}
+
+		return groupIndex;
+	}
+
+	/**
+	 * Same as queueUserUpdate() for group, null group stands for removed one
+	 */
+	protected synchronized GroupIndex queueGroupUpdate(String groupName, PermissionGroup group) {
+		if (groupIndex == null && groupIndexBuild != null) {
+			pendingGroups.put(groupName.toLowerCase(), group);
+		}
+
+		return groupIndex;
+	}
+
+	/**
+	 * Apply queued updates to built index and publish it
+	 */
+	protected synchronized void publishGroupIndex(GroupIndex index) {
+		for (Map.Entry<String, PermissionGroup> entry : pendingGroups.entrySet()) {
+			if (entry.getValue() == null) {
+				index.removeGroup(entry.getKey());
+			} else {
+				index.updateGroup(entry.getValue());
+			}
+		}
+
+		for (Map.Entry<String, PermissionUser> entry : pendingUsers.entrySet()) {
+			if (entry.getValue() == null) {
+				index.removeUser(entry.getKey());
+			} else {
+				index.updateUser(entry.getValue());
+			}
+		}
+
+		pendingGroups.clear();
+		pendingUsers.clear();
+		groupIndex = index;
+	}
+
+	/**
+	 * Return time spent to build model
+	 *
+	 * @return time in milliseconds
+	 */
+	public long getBuildTime() {
+		return buildTime;
+	}
+
+	@Override
+	public String toString() {
+		return groups.size() + " groups, " + users.size() + " users";
+	}
+}
@@ -0,0 +1,276 @@
+package pex.permissions;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Permission expressions compiled into trie keyed on dot-separated segments.
+ *
+ * Plain segments are stored as trie children, "*" segments as wildcard
+ * children, numeric range segments ("1-4095") as range children checked with
+ * integer comparison. Segments which contain regular expression syntax (or wildcard
+ * mixed with text) are compiled into regular expression which is matched
+ * against the rest of permission node. Leading "-" (negation) and "#"
+ * (non-inheritable) flags are stripped before compilation, negation is kept
+ * per expression. Every expression remembers its index in the source list,
+ * so lookup returns the same expression the sequential scan would return
+ * (first match in list order wins).
+ */
+public class PermissionTrie {
+
+	protected final static char SEGMENT_SEPARATOR = '.';
+	protected final static String WILDCARD_SEGMENT = "*";
+	protected final static String REGEXP_CHARS = "\\^$|?+()[]{}*";
+	protected static Pattern rangeExpression = Pattern.compile("\\d+-\\d+");
+
+	protected final String[] expressions;
+	protected final boolean[] negated;
+	protected final Node root = new Node();
+
+	public PermissionTrie(String[] expressions) {
+		this.expressions = expressions;
+		this.negated = new boolean[expressions.length];
+
+		for (int i = 0; i < expressions.length; i++) {
+			if (expressions[i] != null) {
+				negated[i] = expressions[i].startsWith("-");
+				add(expressions[i], i);
+			}
+		}
+	}
+
+	/**
+	 * Returns source expressions of this trie
+	 *
+	 * @return expressions in list order
+	 */
+	public String[] getExpressions() {
+		return expressions;
+	}
+
+	/**
+	 * Returns index of first expression (in list order) which matches
+	 * permission
+	 *
+	 * @param permission
+	 *            permission node to check
+	 * @return index of matched expression, or -1 if nothing matches
+	 */
+	public int getMatchingIndex(String permission) {
+		int index = match(root, permission.toLowerCase(), 0, Integer.MAX_VALUE);
+
+		return index == Integer.MAX_VALUE ? -1 : index;
+	}
+
+	/**
+	 * Returns first expression (in list order) which matches permission
+	 *
+	 * @param permission
+	 *            permission node to check
+	 * @return matched expression or null if nothing matches
+	 */
+	public String getMatchingExpression(String permission) {
+		int index = getMatchingIndex(permission);
+
+		return index < 0 ? null : expressions[index];
+	}
+
+	/**
+	 * Checks permission against compiled expressions
+	 *
+	 * @param permission
+	 *            permission node to check
+	 * @return TRUE or FALSE (negated expression) if some expression matches,
+	 *         UNDEFINED otherwise
+	 */
+	public PermissionCheckResult check(String permission) {
+		int index = getMatchingIndex(permission);
+
+		if (index < 0) {
+			return PermissionCheckResult.UNDEFINED;
+		}
+
+		return PermissionCheckResult.fromBoolean(!negated[index]);
+	}
+
+	protected void add(String expression, int index) {
+		String body = RegExpMatcher.stripFlags(expression);
+
+		Node node = root;
+		node.updateMinIndex(index);
+
+		NumericRange range;
+		int start = 0;
+		while (true) {
+			int end = body.indexOf(SEGMENT_SEPARATOR, start);
+			String segment = end < 0 ? body.substring(start) : body.substring(start, end);
+
+			if (WILDCARD_SEGMENT.equals(segment)) {
+				if (node.wildcard == null) {
+					node.wildcard = new Node();
+				}
+
+				node = node.wildcard;
+			} else if ((range = NumericRange.parse(segment)) != null) {
+				Node child = null;
+
+				for (RangeEntry entry : node.ranges) {
+					if (entry.range.equals(range)) {
+						child = entry.node;
+						break;
+					}
+				}
+
+				if (child == null) {
+					node.ranges.add(new RangeEntry(range, child = new Node()));
+				}
+
+				node = child;
+			} else if (isLiteral(segment)) {
+				String key = segment.toLowerCase();
+				Node child = node.children.get(key);
+
+				if (child == null) {
+					node.children.put(key, child = new Node());
+				}
+
+				node = child;
+			} else {
+				// Rest of expression can't be split on segments, so match it
+				// as a whole
+				node.patterns.add(new PatternEntry(compileTail(body.substring(start)), index));
+				return;
+			}
+
+			node.updateMinIndex(index);
+
+			if (end < 0) {
+				break;
+			}
+
+			start = end + 1;
+		}
+
+		if (node.index < 0 || node.index > index) {
+			node.index = index;
+		}
+	}
+
+	/**
+	 * @param node
+	 *            current trie node
+	 * @param permission
+	 *            lowercased permission node
+	 * @param offset
+	 *            offset of current segment in permission, or
+	 *            permission.length() + 1 when all segments are consumed
+	 * @param best
+	 *            lowest index of matched expression found so far
+	 * @return lowest index of matched expression, or best
+	 */
+	protected int match(Node node, String permission, int offset, int best) {
+		if (node.minIndex >= best) { // nothing better in this subtree
+			return best;
+		}
+
+		int length = permission.length();
+
+		if (offset > length) { // all segments are consumed
+			return node.index >= 0 && node.index < best ? node.index : best;
+		}
+
+		for (PatternEntry entry : node.patterns) {
+			if (entry.index < best && entry.pattern.matches(permission, offset, length)) {
+				best = entry.index;
+			}
+		}
+
+		int end = permission.indexOf(SEGMENT_SEPARATOR, offset);
+		int next = end < 0 ? length + 1 : end + 1;
+
+		int segmentEnd = end < 0 ? length : end;
+
+		if (!node.children.isEmpty()) {
+			Node child = node.children.get(permission.substring(offset, segmentEnd));
+			if (child != null) {
+				best = match(child, permission, next, best);
+			}
+		}
+
+		for (RangeEntry entry : node.ranges) {
+			if (entry.range.contains(permission, offset, segmentEnd)) {
+				best = match(entry.node, permission, next, best);
+			}
+		}
+
+		if (node.wildcard != null) { // wildcard eats one or more segments
+			while (true) {
+				best = match(node.wildcard, permission, next, best);
+
+				if (next > length) {
+					break;
+				}
+
+				end = permission.indexOf(SEGMENT_SEPARATOR, next);
+				next = end < 0 ? length + 1 : end + 1;
+			}
+		}
+
+		return best;
+	}
+
+	protected ExpressionPattern compileTail(String tail) {
+		return ExpressionPattern.compile(tail);
+	}
+
+	protected static boolean isLiteral(String segment) {
+		for (int i = 0; i < segment.length(); i++) {
+			if (REGEXP_CHARS.indexOf(segment.charAt(i)) >= 0) {
+				return false;
+			}
+		}
+
+		return !rangeExpression.matcher(segment).find();
+	}
+
+	protected static class Node {
+
+		protected final Map<String, Node> children = new HashMap<String, Node>(4);
+		protected final List<RangeEntry> ranges = new ArrayList<RangeEntry>(0);
+		protected final List<PatternEntry> patterns = new ArrayList<PatternEntry>(0);
+		protected Node wildcard;
+		protected int index = -1;
+		protected int minIndex = Integer.MAX_VALUE;
+
+		protected void updateMinIndex(int index) {
+			if (index < minIndex) {
+				minIndex = index;
+			}
+		}
+	}
+
+	protected static class RangeEntry {
+
+		protected final NumericRange range;
+		protected final Node node;
+
+		protected RangeEntry(NumericRange range, Node node) {
+			this.range = range;
+			this.node = node;
+		}
+	}
+
+	protected static class PatternEntry {
+
+		protected final ExpressionPattern pattern;
+		protected final int index;
+
+		protected PatternEntry(ExpressionPattern pattern, int index) {
+			this.pattern = pattern;
+			this.index = index;
+		}
+	}
+}
@@ -20,6 +20,7 @@ package pex.permissions;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -37,15 +38,12 @@ import pex.permissions.exceptions.RankingException;
  */
 public abstract class PermissionUser extends PermissionEntity {
 
-	protected Map<String, List<PermissionGroup>> cachedGroups = new HashMap<String, List<PermissionGroup>>();
-	protected Map<String, String[]> cachedPermissions = new HashMap<String, String[]>();
-	protected Map<String, String> cachedPrefix = new HashMap<String, String>();
-	protected Map<String, String> cachedSuffix = new HashMap<String, String>();
-	protected HashMap<String, String> cachedAnwsers = new HashMap<String, String>();
-	protected HashMap<String, String> cachedOptions = new HashMap<String, String>();
+	protected volatile UserSnapshot snapshot;
 
 	public PermissionUser(String playerName, PermissionManager manager) {
 		super(playerName, manager);
+
+		this.snapshot = createSnapshot();
 	}
 
 	@Override
@@ -98,15 +96,17 @@ public abstract class PermissionUser extends PermissionEntity {
 
 	@Override
 	public String getOption(String optionName, String worldName, String defaultValue) {
+		UserSnapshot cache = getSnapshot();
 		String cacheIndex = worldName + "|" + optionName;
 
-		if (cachedOptions.containsKey(cacheIndex)) {
-			return cachedOptions.get(cacheIndex);
+		String value = cache.options.get(cacheIndex);
+		if (value != null) {
+			return value;
 		}
 
-		String value = this.getOwnOption(optionName, worldName, null);
+		value = this.getOwnOption(optionName, worldName, null);
 		if (value != null) {
-			cachedOptions.put(cacheIndex, value);
+			cache.options.put(cacheIndex, value);
 			return value;
 		}
 
@@ -114,7 +114,7 @@ public abstract class PermissionUser extends PermissionEntity {
 			for (String world : manager.getWorldInheritance(worldName)) {
 				value = this.getOption(optionName, world, null);
 				if (value != null) {
-					cachedOptions.put(cacheIndex, value);
+					cache.options.put(cacheIndex, value);
 					return value;
 				}
 			}
@@ -122,7 +122,7 @@ public abstract class PermissionUser extends PermissionEntity {
 			// Check common space
 			value = this.getOption(optionName, null, null);
 			if (value != null) {
-				cachedOptions.put(cacheIndex, value);
+				cache.options.put(cacheIndex, value);
 				return value;
 			}
 		}
@@ -131,7 +131,7 @@ public abstract class PermissionUser extends PermissionEntity {
 		for (PermissionGroup group : this.getGroups(worldName)) {
 			value = group.getOption(optionName, worldName, null);
 			if (value != null) {
-				cachedOptions.put(cacheIndex, value); // put into cache
+				cache.options.put(cacheIndex, value); // put into cache
 														// inherited value
 				return value;
 			}
@@ -222,11 +222,17 @@ public abstract class PermissionUser extends PermissionEntity {
 	 * @return PermissionGroup groups
 	 */
 	public PermissionGroup[] getGroups(String worldName) {
-		if (!cachedGroups.containsKey(worldName)) {
-			cachedGroups.put(worldName, this.getGroups(worldName, manager.getDefaultGroup(worldName)));
+		UserSnapshot cache = getSnapshot();
+		String worldKey = UserSnapshot.worldKey(worldName);
+
+		PermissionGroup[] groups = cache.groups.get(worldKey);
+		if (groups == null) {
+			groups = this.getGroups(worldName, manager.getDefaultGroup(worldName)).toArray(new PermissionGroup[0]);
+			cache.addGroupDependencies(groups, worldName);
+			cache.groups.put(worldKey, groups);
 		}
 
-		return cachedGroups.get(worldName).toArray(new PermissionGroup[0]);
+		return groups.clone();
 	}
 
 	private List<PermissionGroup> getGroups(String worldName, PermissionGroup fallback) {
@@ -568,32 +574,10 @@ public abstract class PermissionUser extends PermissionEntity {
 		int rank = getRank(ladderName);
 
 		PermissionGroup sourceGroup = getRankLadders().get(ladderName);
-		PermissionGroup targetGroup = null;
-
-		for (Map.Entry<Integer, PermissionGroup> entry : manager.getRankLadder(ladderName).entrySet()) {
-			int groupRank = entry.getValue().getRank();
-			if (groupRank >= rank) { // group have equal or lower than current
-										// rank
-				continue;
-			}
 
-			if (groupRank <= promoterRank) { // group have higher rank than
-												// promoter
-				continue;
-			}
-
-			if (targetGroup != null && groupRank <= targetGroup.getRank()) { // group
-																				// have
-																				// higher
-																				// rank
-																				// than
-																				// target
-																				// group
-				continue;
-			}
-
-			targetGroup = entry.getValue();
-		}
+		// closest group above current rank, but below promoter
+		String targetName = manager.getRankLadderIndex().getHigher(ladderName, rank, promoterRank);
+		PermissionGroup targetGroup = targetName != null ? manager.getGroup(targetName) : null;
 
 		if (targetGroup == null) {
 			throw new RankingException("User are not promoteable", this, promoter);
@@ -625,32 +609,10 @@ public abstract class PermissionUser extends PermissionEntity {
 		int rank = getRank(ladderName);
 
 		PermissionGroup sourceGroup = getRankLadders().get(ladderName);
-		PermissionGroup targetGroup = null;
-
-		for (Map.Entry<Integer, PermissionGroup> entry : manager.getRankLadder(ladderName).entrySet()) {
-			int groupRank = entry.getValue().getRank();
-			if (groupRank <= rank) { // group have equal or higher than current
-										// rank
-				continue;
-			}
 
-			if (groupRank <= promoterRank) { // group have higher rank than
-												// promoter
-				continue;
-			}
-
-			if (targetGroup != null && groupRank >= targetGroup.getRank()) { // group
-																				// have
-																				// lower
-																				// rank
-																				// than
-																				// target
-																				// group
-				continue;
-			}
-
-			targetGroup = entry.getValue();
-		}
+		// closest group below current rank and promoter
+		String targetName = manager.getRankLadderIndex().getLower(ladderName, rank, promoterRank);
+		PermissionGroup targetGroup = targetName != null ? manager.getGroup(targetName) : null;
 
 		if (targetGroup == null) {
 			throw new RankingException("User are not demoteable", this, demoter);
@@ -726,14 +688,22 @@ public abstract class PermissionUser extends PermissionEntity {
 
 	@Override
 	public String[] getPermissions(String worldName) {
-		if (!cachedPermissions.containsKey(worldName)) {
-			List<String> permissions = new LinkedList<String>();
-			getInheritedPermissions(worldName, permissions, true, false);
+		return getPermissions(getSnapshot(), worldName);
+	}
+
+	protected String[] getPermissions(UserSnapshot cache, String worldName) {
+		String worldKey = UserSnapshot.worldKey(worldName);
+
+		String[] permissions = cache.permissions.get(worldKey);
+		if (permissions == null) {
+			List<String> inherited = new LinkedList<String>();
+			getInheritedPermissions(worldName, inherited, true, false);
 
-			cachedPermissions.put(worldName, permissions.toArray(new String[0]));
+			permissions = inherited.toArray(new String[0]);
+			cache.permissions.put(worldKey, permissions);
 		}
 
-		return cachedPermissions.get(worldName);
+		return permissions;
 	}
 
 	@Override
@@ -763,23 +733,21 @@ public abstract class PermissionUser extends PermissionEntity {
 		permissions.addAll(Arrays.asList(getTimedPermissions(worldName)));
 		permissions.addAll(Arrays.asList(getOwnPermissions(worldName)));
 
-		if (worldName != null) {
-			// World inheritance
-			for (String parentWorld : manager.getWorldInheritance(worldName)) {
+		// skip if we are inside world-inheritance tree
+		if (worldName != null && !worldInheritance) {
+			// World inheritance, closure is already transitive
+			for (String parentWorld : manager.getWorldInheritanceClosure(worldName)) {
 				getInheritedPermissions(parentWorld, permissions, false, true);
 			}
 
 			// Common permissions
-			if (!worldInheritance) { // skip common world permissions if we are
-										// inside world-inheritance tree
-				getInheritedPermissions(null, permissions, false, true);
-			}
+			getInheritedPermissions(null, permissions, false, true);
 		}
 
 		// Group inhertance
 		if (groupInheritance) {
 			for (PermissionGroup parentGroup : this.getGroups(worldName)) {
-				parentGroup.getInheritedPermissions(worldName, permissions, true, false, true);
+				permissions.addAll(Arrays.asList(parentGroup.getInheritedPermissions(worldName, true)));
 			}
 		}
 	}
@@ -798,6 +766,13 @@ public abstract class PermissionUser extends PermissionEntity {
 		clearCache();
 	}
 
+	@Override
+	protected void expireTimedPermissions(List<TimedPermissionScheduler.Grant> grants) {
+		super.expireTimedPermissions(grants);
+
+		clearCache();
+	}
+
 	protected int getPromoterRankAndCheck(PermissionUser promoter, String ladderName) throws RankingException {
 		if (!isRanked(ladderName)) { // not ranked
 			throw new RankingException("User are not in this ladder", this, promoter);
@@ -830,7 +805,11 @@ public abstract class PermissionUser extends PermissionEntity {
 	public String getPrefix(String worldName) {
 		// @TODO This method should be refactored
 
-		if (!cachedPrefix.containsKey(worldName)) {
+		UserSnapshot cache = getSnapshot();
+		String worldKey = UserSnapshot.worldKey(worldName);
+
+		String cachedPrefix = cache.prefixes.get(worldKey);
+		if (cachedPrefix == null) {
 			String localPrefix = this.getOwnPrefix(worldName);
 
 			if (worldName != null && (localPrefix == null || localPrefix.isEmpty())) {
@@ -862,18 +841,18 @@ public abstract class PermissionUser extends PermissionEntity {
 				localPrefix = "";
 			}
 
-			localPrefix = localPrefix.replaceAll("\\$", "§");
-			cachedPrefix.put(worldName, localPrefix);
+			cachedPrefix = localPrefix.replaceAll("\\$", "§");
+			cache.prefixes.put(worldKey, cachedPrefix);
 		}
 
-		return cachedPrefix.get(worldName);
+		return cachedPrefix;
 	}
 
 	@Override
 	public boolean has(String permission) {
 		EntityPlayer player = MinecraftServer.getServer().getConfigurationManager().getPlayerForUsername(getName());
 		if (player != null) {
-			return this.has(permission, String.valueOf(player.dimension));
+			return this.has(permission, manager.getWorldName(player.dimension));
 		}
 
 		return super.has(permission);
@@ -882,7 +861,11 @@ public abstract class PermissionUser extends PermissionEntity {
 	@Override
 	public String getSuffix(String worldName) {
 		// @TODO This method should be refactored
-		if (!cachedSuffix.containsKey(worldName)) {
+		UserSnapshot cache = getSnapshot();
+		String worldKey = UserSnapshot.worldKey(worldName);
+
+		String cachedSuffix = cache.suffixes.get(worldKey);
+		if (cachedSuffix == null) {
 			String localSuffix = this.getOwnSuffix(worldName);
 
 			if (worldName != null && (localSuffix == null || localSuffix.isEmpty())) {
@@ -914,31 +897,146 @@ public abstract class PermissionUser extends PermissionEntity {
 				localSuffix = "";
 			}
 
-			localSuffix = localSuffix.replaceAll("\\$", "§");
-			cachedSuffix.put(worldName, localSuffix);
+			cachedSuffix = localSuffix.replaceAll("\\$", "§");
+			cache.suffixes.put(worldKey, cachedSuffix);
 		}
 
-		return cachedSuffix.get(worldName);
+		return cachedSuffix;
+	}
+
+	/**
+	 * Return permissions of user in world compiled by current matcher. Compiled
+	 * form is cached together with permissions list.
+	 * 
+	 * @param worldName
+	 * @return compiled permissions or null if matcher can't compile lists
+	 */
+	protected PermissionTrie getPermissionsMatcher(String worldName) {
+		return getPermissionsMatcher(getSnapshot(), worldName);
+	}
+
+	protected PermissionTrie getPermissionsMatcher(UserSnapshot cache, String worldName) {
+		PermissionMatcher matcher = manager.getPermissionMatcher();
+
+		if (!(matcher instanceof PermissionListMatcher)) {
+			return null;
+		}
+
+		String worldKey = UserSnapshot.worldKey(worldName);
+
+		PermissionTrie compiled = cache.matchers.get(worldKey);
+		if (compiled == null) {
+			compiled = ((PermissionListMatcher) matcher).compile(getPermissions(cache, worldName));
+			cache.matchers.put(worldKey, compiled);
+		}
+
+		return compiled;
 	}
 
 	@Override
 	public String getMatchingExpression(String permission, String world) {
-		String cacheId = world + ":" + permission;
-		if (!cachedAnwsers.containsKey(cacheId)) {
-			cachedAnwsers.put(cacheId, super.getMatchingExpression(permission, world));
+		return getMatchingExpression(getSnapshot(), permission, world);
+	}
+
+	protected String getMatchingExpression(UserSnapshot cache, String permission, String world) {
+		// decision indexes refer to permissions of this snapshot
+		String worldKey = UserSnapshot.worldKey(world);
+
+		String[] permissions = getPermissions(cache, world);
+		int decision = cache.decisions.get(worldKey, permission);
+
+		if (decision == DecisionTable.MISSING) {
+			PermissionTrie compiled = getPermissionsMatcher(cache, world);
+			int index = compiled != null ? compiled.getMatchingIndex(permission) : getMatchingIndex(permissions, permission);
+
+			decision = DecisionTable.encode(permissions, index);
+			cache.decisions.put(worldKey, permission, decision);
 		}
 
-		return cachedAnwsers.get(cacheId);
+		int index = DecisionTable.getIndex(decision);
+
+		return index < 0 ? null : permissions[index];
 	}
 
-	protected void clearCache() {
-		cachedPrefix.clear();
-		cachedSuffix.clear();
+	/**
+	 * Check several permissions at once. All permissions are checked against
+	 * the same snapshot of user data.
+	 * 
+	 * @param permissions
+	 *            permissions to check
+	 * @param world
+	 *            world name
+	 * @return bit set, bit i is set if user has permissions[i]
+	 */
+	public BitSet has(String[] permissions, String world) {
+		UserSnapshot cache = getSnapshot();
+		BitSet result = new BitSet(permissions.length);
+
+		for (int i = 0; i < permissions.length; i++) {
+			if (has(cache, permissions[i], world)) {
+				result.set(i);
+			}
+		}
 
-		cachedGroups.clear();
-		cachedPermissions.clear();
-		cachedAnwsers.clear();
-		cachedOptions.clear();
+		return result;
+	}
+
+	@Override
+	public boolean has(String permission, String world) {
+		return has(getSnapshot(), permission, world);
+	}
+
+	/**
+	 * Check permission against snapshot of user data
+	 * 
+	 * @param cache
+	 *            snapshot of user data
+	 * @param permission
+	 * @param world
+	 * @return true if user has permission
+	 */
+	protected boolean has(UserSnapshot cache, String permission, String world) {
+		return isPublic(permission) || explainPermission(permission, getMatchingExpression(cache, permission, world));
+	}
+
+	/**
+	 * Resolve user data for world ahead of first check: groups, permissions
+	 * with their compiled form, prefix and suffix.
+	 * 
+	 * @param worldName
+	 */
+	public void warm(String worldName) {
+		UserSnapshot cache = getSnapshot();
+
+		getGroups(worldName);
+		getPermissions(cache, worldName);
+		getPermissionsMatcher(cache, worldName);
+		getPrefix(worldName);
+		getSuffix(worldName);
+	}
+
+	/**
+	 * Return current snapshot of resolved data, stale snapshot is replaced
+	 * with empty one
+	 * 
+	 * @return up to date snapshot
+	 */
+	protected UserSnapshot getSnapshot() {
+		UserSnapshot cache = snapshot;
+
+		if (!cache.isValid(manager)) {
+			snapshot = cache = createSnapshot();
+		}
+
+		return cache;
+	}
+
+	protected UserSnapshot createSnapshot() {
+		return new UserSnapshot(manager.getDecisionCacheSize(), manager.getGeneration());
+	}
+
+	protected void clearCache() {
+		snapshot = createSnapshot();
 	}
 
 	@Override
@@ -954,6 +1052,8 @@ public abstract class PermissionUser extends PermissionEntity {
 	@Override
 	public void remove() {
 		clearCache();
+
+		manager.removeFromGroupIndex(this);
 	}
 
 	@Override
@@ -116,6 +116,10 @@ public abstract class ProxyPermissionGroup extends PermissionGroup {
 		backendEntity.setOption(permission, value, world);
 
 		clearMembersCache();
+
+		if ("rank".equals(permission) || "rank-ladder".equals(permission)) {
+			manager.updateRankLadderIndex(this);
+		}
 	}
 
 	@Override
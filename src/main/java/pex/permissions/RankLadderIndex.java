@@ -0,0 +1,139 @@
+package pex.permissions;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Index of ranked groups: ladder to group names ordered by rank. Lower rank
+ * number is higher position on ladder. Only one group is kept per rank, same
+ * as ladder map returned by manager.
+ *
+ * Ladder names are lowercased, group names are kept as is.
+ */
+public class RankLadderIndex {
+
+	protected final Map<String, TreeMap<Integer, String>> ladders = new HashMap<String, TreeMap<Integer, String>>();
+	protected final Map<String, Position> positions = new HashMap<String, Position>();
+
+	/**
+	 * Replace indexed rank and ladder of group with current ones
+	 *
+	 * @param group
+	 */
+	public synchronized void update(PermissionGroup group) {
+		String groupName = group.getName().toLowerCase();
+
+		remove(groupName);
+
+		int rank = group.getRank();
+		if (rank <= 0) {
+			return;
+		}
+
+		Position position = new Position(group.getName(), group.getRankLadder().toLowerCase(), rank);
+		positions.put(groupName, position);
+
+		TreeMap<Integer, String> ladder = ladders.get(position.ladder);
+		if (ladder == null) {
+			ladders.put(position.ladder, ladder = new TreeMap<Integer, String>());
+		}
+
+		ladder.put(rank, group.getName());
+	}
+
+	public synchronized void remove(String groupName) {
+		Position position = positions.remove(groupName.toLowerCase());
+		if (position == null) {
+			return;
+		}
+
+		TreeMap<Integer, String> ladder = ladders.get(position.ladder);
+		if (ladder == null || !position.groupName.equals(ladder.get(position.rank))) {
+			return; // rank is held by other group
+		}
+
+		ladder.remove(position.rank);
+
+		// other group with same rank takes the place
+		for (Position other : positions.values()) {
+			if (other.rank == position.rank && other.ladder.equals(position.ladder)) {
+				ladder.put(other.rank, other.groupName);
+				break;
+			}
+		}
+
+		if (ladder.isEmpty()) {
+			ladders.remove(position.ladder);
+		}
+	}
+
+	/**
+	 * Return groups of ladder
+	 *
+	 * @param ladderName
+	 * @return copy of ladder, key - rank, value - group name
+	 */
+	public synchronized TreeMap<Integer, String> getLadder(String ladderName) {
+		TreeMap<Integer, String> ladder = ladders.get(ladderName.toLowerCase());
+
+		return ladder == null ? new TreeMap<Integer, String>() : new TreeMap<Integer, String>(ladder);
+	}
+
+	/**
+	 * Return closest group which is higher on ladder than rank (has lower
+	 * rank number), but still lower than limit
+	 *
+	 * @param ladderName
+	 * @param rank
+	 *            current rank
+	 * @param limit
+	 *            rank which should not be reached, 0 for no limit
+	 * @return group name or null if there is no such group
+	 */
+	public synchronized String getHigher(String ladderName, int rank, int limit) {
+		TreeMap<Integer, String> ladder = ladders.get(ladderName.toLowerCase());
+		if (ladder == null) {
+			return null;
+		}
+
+		Map.Entry<Integer, String> entry = ladder.lowerEntry(rank);
+
+		return entry == null || entry.getKey() <= limit ? null : entry.getValue();
+	}
+
+	/**
+	 * Return closest group which is lower on ladder than both rank and limit
+	 * (has greater rank number)
+	 *
+	 * @param ladderName
+	 * @param rank
+	 *            current rank
+	 * @param limit
+	 *            rank which should be passed, 0 for no limit
+	 * @return group name or null if there is no such group
+	 */
+	public synchronized String getLower(String ladderName, int rank, int limit) {
+		TreeMap<Integer, String> ladder = ladders.get(ladderName.toLowerCase());
+		if (ladder == null) {
+			return null;
+		}
+
+		Map.Entry<Integer, String> entry = ladder.higherEntry(Math.max(rank, limit));
+
+		return entry == null ? null : entry.getValue();
+	}
+
+	protected static class Position {
+
+		protected final String groupName;
+		protected final String ladder;
+		protected final int rank;
+
+		public Position(String groupName, String ladder, int rank) {
+			this.groupName = groupName;
+			this.ladder = ladder;
+			this.rank = rank;
+		}
+	}
+}
@@ -1,30 +1,69 @@
 package pex.permissions;
 
-import java.util.HashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
 
-public class RegExpMatcher implements PermissionMatcher {
-	protected static Pattern rangeExpression = Pattern.compile("(\\d+)-(\\d+)");
+import pex.utils.BoundedCache;
 
-	protected static HashMap<String, Pattern> patternCache = new HashMap<String, Pattern>();
+public class RegExpMatcher implements PermissionListMatcher {
+	public final static int DEFAULT_CACHE_SIZE = 1000;
+
+	protected final BoundedCache<String, ExpressionPattern> patternCache;
+
+	protected final Map<String[], PermissionTrie> listCache = Collections.synchronizedMap(new WeakHashMap<String[], PermissionTrie>());
+
+	public RegExpMatcher() {
+		this(DEFAULT_CACHE_SIZE);
+	}
+
+	public RegExpMatcher(int cacheSize) {
+		this.patternCache = new BoundedCache<String, ExpressionPattern>(cacheSize);
+	}
 
 	@Override
 	public boolean isMatches(String expression, String permission) {
-		Pattern permissionMatcher = patternCache.get(expression);
+		ExpressionPattern permissionMatcher = patternCache.get(expression);
 
 		if (permissionMatcher == null) {
 			patternCache.put(expression, permissionMatcher = createPattern(expression));
 		}
 
-		return permissionMatcher.matcher(permission).matches();
+		return permissionMatcher.matches(permission);
+	}
+
+	/**
+	 * Compiles list of expressions into trie, cached for same array instance
+	 * as in SegmentTrieMatcher
+	 */
+	@Override
+	public PermissionTrie compile(String[] expressions) {
+		PermissionTrie trie = listCache.get(expressions);
+
+		if (trie == null) {
+			listCache.put(expressions, trie = new PermissionTrie(expressions.clone()));
+		}
+
+		return trie;
 	}
 
-	protected Pattern createPattern(String expression) {
-		return Pattern.compile(prepareRegexp(expression), Pattern.CASE_INSENSITIVE);
+	/**
+	 * Returns compiled pattern cache, could be used to resize it or read
+	 * hit/miss/eviction counters
+	 */
+	public BoundedCache<String, ExpressionPattern> getPatternCache() {
+		return patternCache;
+	}
+
+	protected ExpressionPattern createPattern(String expression) {
+		return ExpressionPattern.compile(stripFlags(expression));
 	}
 
 	public static String prepareRegexp(String expression) {
+		return expressionToRegexp(stripFlags(expression));
+	}
+
+	protected static String stripFlags(String expression) {
 		if (expression.startsWith("-")) {
 			expression = expression.substring(1);
 		}
@@ -33,37 +72,14 @@ public class RegExpMatcher implements PermissionMatcher {
 			expression = expression.substring(1);
 		}
 
-		String regexp = expression.replace(".", "\\.").replace("*", "(.*)");
-
-		try {
-			Matcher rangeMatcher = rangeExpression.matcher(regexp);
-			while (rangeMatcher.find()) {
-				StringBuilder range = new StringBuilder();
-				int from = Integer.parseInt(rangeMatcher.group(1));
-				int to = Integer.parseInt(rangeMatcher.group(2));
-
-				if (from > to) {
-					int temp = from;
-					from = to;
-					to = temp;
-				} // swap them
-
-				range.append("(");
-
-				for (int i = from; i <= to; i++) {
-					range.append(i);
-					if (i < to) {
-						range.append("|");
-					}
-				}
-
-				range.append(")");
-
-				regexp = regexp.replace(rangeMatcher.group(0), range.toString());
-			}
-		} catch (Throwable e) {
-		}
+		return expression;
+	}
 
-		return regexp;
+	/**
+	 * Converts expression body (without leading "-" and "#" flags) into regular
+	 * expression
+	 */
+	public static String expressionToRegexp(String expression) {
+		return ExpressionPattern.toRegexp(expression);
 	}
 }
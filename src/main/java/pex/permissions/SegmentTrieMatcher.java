@@ -0,0 +1,68 @@
+package pex.permissions;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import pex.utils.BoundedCache;
+
+/**
+ * Permission matcher which walks dot-separated segments of permission node
+ * instead of running regular expression for every expression.
+ *
+ * Could be enabled with PermissionManager.setPermissionMatcher(new
+ * SegmentTrieMatcher())
+ */
+public class SegmentTrieMatcher implements PermissionListMatcher {
+
+	protected final BoundedCache<String, PermissionTrie> expressionCache;
+
+	protected final Map<String[], PermissionTrie> listCache = Collections.synchronizedMap(new WeakHashMap<String[], PermissionTrie>());
+
+	public SegmentTrieMatcher() {
+		this(RegExpMatcher.DEFAULT_CACHE_SIZE);
+	}
+
+	public SegmentTrieMatcher(int cacheSize) {
+		this.expressionCache = new BoundedCache<String, PermissionTrie>(cacheSize);
+	}
+
+	@Override
+	public boolean isMatches(String expression, String permission) {
+		PermissionTrie trie = expressionCache.get(expression);
+
+		if (trie == null) {
+			expressionCache.put(expression, trie = new PermissionTrie(new String[] { expression }));
+		}
+
+		return trie.getMatchingIndex(permission) >= 0;
+	}
+
+	/**
+	 * Returns single expression cache, could be used to resize it or read
+	 * hit/miss/eviction counters
+	 */
+	public BoundedCache<String, PermissionTrie> getExpressionCache() {
+		return expressionCache;
+	}
+
+	/**
+	 * Compiles list of expressions into trie. Tries are cached for same array
+	 * instance, so resolved permission arrays are compiled only once. Trie
+	 * keeps its own copy of expressions, so cached array could be collected.
+	 *
+	 * @param expressions
+	 *            permission expressions in list order
+	 * @return compiled trie
+	 */
+	@Override
+	public PermissionTrie compile(String[] expressions) {
+		PermissionTrie trie = listCache.get(expressions);
+
+		if (trie == null) {
+			listCache.put(expressions, trie = new PermissionTrie(expressions.clone()));
+		}
+
+		return trie;
+	}
+}
@@ -0,0 +1,382 @@
+package pex.permissions;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps timed permissions of users and groups and expires them.
+ *
+ * Expiration is driven by hashed timing wheel with one second ticks: grant is
+ * put into slot where it expires, with number of full wheel rounds to wait.
+ * Scheduling and cancelling are O(1), every tick walks only its own slot.
+ * Grants which expire on the same tick are removed from each entity in one
+ * batch.
+ *
+ * Grants are kept by entity name, not by entity object, so they survive
+ * manager reset, backend change and eviction of entity. Loaded entity gets
+ * its live grants back through restore().
+ *
+ * Grants with lifetime are stored in backend with absolute expiration time
+ * and loaded back in bulk on startup, grants without lifetime last until
+ * restart.
+ */
+public class TimedPermissionScheduler {
+
+	protected final static Logger logger = Logger.getLogger("Minecraft");
+	protected final static int WHEEL_SIZE = 512; // power of two
+	protected final static int WHEEL_MASK = WHEEL_SIZE - 1;
+	protected final static int STOP_TIMEOUT = 10; // seconds
+
+	protected final PermissionManager manager;
+
+	protected final ConcurrentMap<String, Map<String, Grant>> entities = new ConcurrentHashMap<String, Map<String, Grant>>();
+	protected final List<List<Grant>> wheel = new ArrayList<List<Grant>>(WHEEL_SIZE);
+	protected int cursor = 0;
+
+	protected ScheduledExecutorService executor;
+
+	public TimedPermissionScheduler(PermissionManager manager) {
+		this.manager = manager;
+
+		for (int i = 0; i < WHEEL_SIZE; i++) {
+			wheel.add(new ArrayList<Grant>());
+		}
+	}
+
+	/**
+	 * Start ticking, does nothing if scheduler is already running
+	 */
+	public synchronized void start() {
+		if (executor != null) {
+			return;
+		}
+
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "PermissionsEx-TimedPermissions");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		executor.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					tick();
+				} catch (RuntimeException e) {
+					logger.log(Level.WARNING, "[PermissionsEx] Failed to expire timed permissions", e);
+				}
+			}
+		}, 1, 1, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stop expiring, waits until running expiry is completed
+	 */
+	public void stop() {
+		ScheduledExecutorService stopped;
+
+		synchronized (this) {
+			stopped = executor;
+			executor = null;
+		}
+
+		if (stopped == null) {
+			return;
+		}
+
+		stopped.shutdown(); // running tick is completed
+		try {
+			stopped.awaitTermination(STOP_TIMEOUT, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Register timed permission, replaces previous grant of same permission
+	 *
+	 * @param entity
+	 * @param permission
+	 * @param world
+	 *            world name, "" for common space
+	 * @param expiresAt
+	 *            unix time in seconds, 0 if permission lasts until restart
+	 */
+	public void schedule(PermissionEntity entity, String permission, String world, long expiresAt) {
+		String entityKey = entityKey(entity);
+		Grant grant = new Grant(entity instanceof PermissionGroup, entity.getName(), world, permission, expiresAt);
+
+		Map<String, Grant> grants = entities.get(entityKey);
+		if (grants == null) {
+			Map<String, Grant> created = new ConcurrentHashMap<String, Grant>();
+			grants = entities.putIfAbsent(entityKey, created);
+
+			if (grants == null) {
+				grants = created;
+			}
+		}
+
+		Grant previous = grants.put(grant.getKey(), grant);
+		if (previous != null) {
+			previous.cancelled = true;
+		}
+
+		if (expiresAt > 0) {
+			addToWheel(grant);
+			manager.getBackend().saveTimedPermission(grant);
+		} else if (previous != null && previous.expiresAt > 0) {
+			manager.getBackend().removeTimedPermissions(Collections.singletonList(previous));
+		}
+	}
+
+	/**
+	 * Remove timed permission before its expiration
+	 */
+	public void cancel(PermissionEntity entity, String permission, String world) {
+		Map<String, Grant> grants = entities.get(entityKey(entity));
+		if (grants == null) {
+			return;
+		}
+
+		Grant grant = grants.remove(world + ":" + permission);
+		if (grant != null) {
+			grant.cancelled = true; // would be dropped from wheel on its tick
+
+			if (grant.expiresAt > 0) {
+				manager.getBackend().removeTimedPermissions(Collections.singletonList(grant));
+			}
+		}
+	}
+
+	/**
+	 * Load stored grants from backend. Expired grants are pruned from backend
+	 * in one sweep, live ones are put on the wheel in one pass. Grants which
+	 * are already known are kept.
+	 * 
+	 * @param backend
+	 * @return count of loaded grants
+	 */
+	public int load(PermissionBackend backend) {
+		long now = System.currentTimeMillis() / 1000L;
+
+		backend.pruneTimedPermissions(now);
+
+		int count = 0;
+		synchronized (this) {
+			for (Grant grant : backend.loadTimedPermissions()) {
+				if (grant.expiresAt <= now) {
+					continue;
+				}
+
+				String entityKey = grant.getEntityKey();
+				Map<String, Grant> grants = entities.get(entityKey);
+				if (grants == null) {
+					entities.put(entityKey, grants = new ConcurrentHashMap<String, Grant>());
+				}
+
+				if (grants.containsKey(grant.getKey())) {
+					continue;
+				}
+
+				grants.put(grant.getKey(), grant);
+				addToWheel(grant);
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Put live grants of entity back into freshly loaded entity
+	 */
+	public void restore(PermissionEntity entity) {
+		Map<String, Grant> grants = entities.get(entityKey(entity));
+		if (grants == null) {
+			return;
+		}
+
+		long now = System.currentTimeMillis() / 1000L;
+
+		for (Grant grant : grants.values()) {
+			if (grant.expiresAt == 0 || grant.expiresAt > now) { // due ones are expired by wheel
+				entity.restoreTimedPermission(grant.permission, grant.world, grant.expiresAt);
+			}
+		}
+	}
+
+	/**
+	 * Return all grants of entity
+	 */
+	public Collection<Grant> getGrants(PermissionEntity entity) {
+		Map<String, Grant> grants = entities.get(entityKey(entity));
+
+		if (grants == null) {
+			return new ArrayList<Grant>();
+		}
+
+		return new ArrayList<Grant>(grants.values());
+	}
+
+	public int size() {
+		int size = 0;
+
+		for (Map<String, Grant> grants : entities.values()) {
+			size += grants.size();
+		}
+
+		return size;
+	}
+
+	protected synchronized void addToWheel(Grant grant) {
+		long ticks = Math.max(1, grant.expiresAt - System.currentTimeMillis() / 1000L);
+
+		grant.rounds = (ticks - 1) / WHEEL_SIZE;
+		wheel.get((int) ((cursor + ticks) & WHEEL_MASK)).add(grant);
+	}
+
+	/**
+	 * Advance wheel by one second and expire due grants
+	 */
+	protected void tick() {
+		List<Grant> expired = new ArrayList<Grant>();
+
+		synchronized (this) {
+			cursor = (cursor + 1) & WHEEL_MASK;
+
+			Iterator<Grant> iterator = wheel.get(cursor).iterator();
+			while (iterator.hasNext()) {
+				Grant grant = iterator.next();
+
+				if (grant.cancelled) {
+					iterator.remove();
+				} else if (grant.rounds > 0) {
+					grant.rounds--;
+				} else {
+					iterator.remove();
+					expired.add(grant);
+				}
+			}
+		}
+
+		if (!expired.isEmpty()) {
+			expire(expired);
+		}
+	}
+
+	protected void expire(List<Grant> expired) {
+		Map<String, List<Grant>> batches = new LinkedHashMap<String, List<Grant>>();
+
+		for (Grant grant : expired) {
+			Map<String, Grant> grants = entities.get(grant.getEntityKey());
+			if (grants == null || !grants.remove(grant.getKey(), grant)) {
+				continue; // replaced or cancelled meanwhile
+			}
+
+			List<Grant> batch = batches.get(grant.getEntityKey());
+			if (batch == null) {
+				batches.put(grant.getEntityKey(), batch = new ArrayList<Grant>());
+			}
+
+			batch.add(grant);
+		}
+
+		if (batches.isEmpty()) {
+			return;
+		}
+
+		List<Grant> removed = new ArrayList<Grant>();
+		for (List<Grant> batch : batches.values()) {
+			removed.addAll(batch);
+		}
+
+		manager.getBackend().removeTimedPermissions(removed);
+
+		for (List<Grant> batch : batches.values()) {
+			Grant first = batch.get(0);
+			PermissionEntity entity = first.group ? manager.getGroupRegistry().getLoaded(first.entityName) : manager.getUserRegistry().getLoaded(first.entityName);
+
+			if (entity != null) { // not loaded entity just won't get it back
+				entity.expireTimedPermissions(batch);
+			}
+		}
+	}
+
+	protected static String entityKey(PermissionEntity entity) {
+		return entityKey(entity instanceof PermissionGroup, entity.getName());
+	}
+
+	protected static String entityKey(boolean group, String name) {
+		return (group ? "group:" : "user:") + name.toLowerCase();
+	}
+
+	/**
+	 * Timed permission of user or group
+	 */
+	public static class Grant {
+
+		protected final boolean group;
+		protected final String entityName;
+		protected final String world;
+		protected final String permission;
+		protected final long expiresAt;
+
+		protected long rounds;
+		protected volatile boolean cancelled = false;
+
+		public Grant(boolean group, String entityName, String world, String permission, long expiresAt) {
+			this.group = group;
+			this.entityName = entityName;
+			this.world = world;
+			this.permission = permission;
+			this.expiresAt = expiresAt;
+		}
+
+		public boolean isGroup() {
+			return group;
+		}
+
+		public String getEntityName() {
+			return entityName;
+		}
+
+		/**
+		 * @return world name, "" for common space
+		 */
+		public String getWorld() {
+			return world;
+		}
+
+		public String getPermission() {
+			return permission;
+		}
+
+		public long getExpiresAt() {
+			return expiresAt;
+		}
+
+		protected String getKey() {
+			return world + ":" + permission;
+		}
+
+		protected String getEntityKey() {
+			return entityKey(group, entityName);
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package pex.permissions;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolved state of PermissionUser
+ */
+public class UserSnapshot extends CacheSnapshot {
+
+	protected final ConcurrentMap<String, PermissionGroup[]> groups = new ConcurrentHashMap<String, PermissionGroup[]>();
+	protected final ConcurrentMap<String, String[]> permissions = new ConcurrentHashMap<String, String[]>();
+	protected final ConcurrentMap<String, PermissionTrie> matchers = new ConcurrentHashMap<String, PermissionTrie>();
+	protected final ConcurrentMap<String, String> prefixes = new ConcurrentHashMap<String, String>();
+	protected final ConcurrentMap<String, String> suffixes = new ConcurrentHashMap<String, String>();
+	protected final ConcurrentMap<String, String> options = new ConcurrentHashMap<String, String>();
+	protected final DecisionTable decisions;
+
+	public UserSnapshot(int decisionCacheSize, long generation) {
+		super(generation);
+
+		this.decisions = new DecisionTable(decisionCacheSize);
+	}
+
+	public DecisionTable getDecisions() {
+		return decisions;
+	}
+}
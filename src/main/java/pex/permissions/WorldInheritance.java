@@ -0,0 +1,196 @@
+package pex.permissions;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Compiled world inheritance graph. Parents of every world are read from
+ * backend once, transitive closure is ordered depth-first, same as recursive
+ * walk through parents, with duplicates and cycles removed.
+ *
+ * Graph is immutable, manager replaces it with a new one when inheritance is
+ * changed or backend is reloaded. Returned arrays are shared and should not
+ * be modified.
+ */
+public class WorldInheritance {
+
+	protected final static String[] EMPTY = new String[0];
+
+	/**
+	 * Range of dimension ids which are looked up in array, others go to map
+	 */
+	protected final static int MIN_DIMENSION = -256;
+	protected final static int MAX_DIMENSION = 767;
+
+	protected final PermissionBackend backend;
+
+	protected final ConcurrentMap<String, World> worlds = new ConcurrentHashMap<String, World>();
+	protected final AtomicReferenceArray<World> dimensions = new AtomicReferenceArray<World>(MAX_DIMENSION - MIN_DIMENSION + 1);
+	protected final ConcurrentMap<Integer, World> otherDimensions = new ConcurrentHashMap<Integer, World>();
+
+	public WorldInheritance(PermissionBackend backend) {
+		this.backend = backend;
+	}
+
+	/**
+	 * Return direct parents of world
+	 *
+	 * @param worldName
+	 * @return array of parent world names, empty if world has no parents
+	 */
+	public String[] getParents(String worldName) {
+		if (worldName == null || worldName.isEmpty()) {
+			return EMPTY;
+		}
+
+		return getWorld(worldName).parents;
+	}
+
+	/**
+	 * Return all ancestors of world, ordered like recursive walk through
+	 * parents: parent goes first then its ancestors, then next parent
+	 *
+	 * @param worldName
+	 * @return array of ancestor world names, world itself is not included
+	 */
+	public String[] getClosure(String worldName) {
+		if (worldName == null || worldName.isEmpty()) {
+			return EMPTY;
+		}
+
+		return getWorld(worldName).getClosure();
+	}
+
+	/**
+	 * Return name of dimension, same string for every call
+	 *
+	 * @param dimension
+	 *            dimension id
+	 * @return dimension id as string
+	 */
+	public String getWorldName(int dimension) {
+		return getDimension(dimension).name;
+	}
+
+	public String[] getParents(int dimension) {
+		return getDimension(dimension).parents;
+	}
+
+	public String[] getClosure(int dimension) {
+		return getDimension(dimension).getClosure();
+	}
+
+	protected World getDimension(int dimension) {
+		if (dimension >= MIN_DIMENSION && dimension <= MAX_DIMENSION) {
+			int index = dimension - MIN_DIMENSION;
+			World world = dimensions.get(index);
+
+			if (world == null) {
+				world = getWorld(String.valueOf(dimension));
+				dimensions.set(index, world);
+			}
+
+			return world;
+		}
+
+		World world = otherDimensions.get(dimension);
+		if (world == null) {
+			world = getWorld(String.valueOf(dimension));
+			otherDimensions.put(dimension, world);
+		}
+
+		return world;
+	}
+
+	protected World getWorld(String worldName) {
+		World world = worlds.get(worldName);
+
+		if (world == null) {
+			World created = new World(worldName, readParents(worldName));
+			world = worlds.putIfAbsent(worldName, created);
+
+			if (world == null) {
+				world = created;
+			}
+		}
+
+		return world;
+	}
+
+	protected String[] readParents(String worldName) {
+		String[] parents = backend.getWorldInheritance(worldName);
+
+		if (parents == null || parents.length == 0) {
+			return EMPTY;
+		}
+
+		List<String> result = new ArrayList<String>(parents.length);
+		for (String parent : parents) {
+			if (parent != null && !parent.isEmpty()) {
+				result.add(parent);
+			}
+		}
+
+		return result.toArray(new String[result.size()]);
+	}
+
+	protected String[] buildClosure(World world) {
+		if (world.parents.length == 0) {
+			return EMPTY;
+		}
+
+		List<String> closure = new ArrayList<String>();
+		Set<String> visited = new HashSet<String>();
+		visited.add(world.name);
+
+		LinkedList<String> stack = new LinkedList<String>();
+		pushParents(world.parents, stack);
+
+		while (!stack.isEmpty()) {
+			String worldName = stack.removeFirst();
+
+			if (!visited.add(worldName)) {
+				continue;
+			}
+
+			closure.add(worldName);
+			pushParents(getWorld(worldName).parents, stack);
+		}
+
+		return closure.toArray(new String[closure.size()]);
+	}
+
+	protected static void pushParents(String[] parents, LinkedList<String> stack) {
+		for (int i = parents.length - 1; i >= 0; i--) {
+			stack.addFirst(parents[i]);
+		}
+	}
+
+	protected class World {
+
+		protected final String name;
+		protected final String[] parents;
+		protected volatile String[] closure;
+
+		public World(String name, String[] parents) {
+			this.name = name;
+			this.parents = parents;
+		}
+
+		public String[] getClosure() {
+			String[] result = closure;
+
+			if (result == null) {
+				closure = result = buildClosure(this);
+			}
+
+			return result;
+		}
+	}
+}
@@ -0,0 +1,494 @@
+package pex.permissions.backends;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import pex.permissions.PermissionManager;
+import pex.permissions.PermissionUser;
+import pex.permissions.backends.dir.DirectoryEntity;
+import pex.permissions.backends.dir.UserFile;
+import pex.permissions.backends.file.FileJournal;
+import pex.permissions.backends.file.FileUser;
+
+/**
+ * File backend which keeps every user in its own file. Groups, worlds and
+ * timed permissions are kept in permissions.yml inside backend directory,
+ * users are kept in sharded files users/ab/abcdef.yml with the same layout.
+ * User file is loaded when user is requested and only changed user files are
+ * written.
+ *
+ * Users found in permissions.yml (copied from file backend) are moved to
+ * user files on startup.
+ */
+public class DirectoryBackend extends FileBackend {
+
+	protected final static String USER_FILE_EXTENSION = ".yml";
+
+	/**
+	 * Loaded user files, shared by all backend instances. There is one file
+	 * object per location, so write sequence of file protects it from
+	 * outdated writes of replaced backend. Sequence and write lock are shared
+	 * for the same reason. Pending users count backends which have unwritten
+	 * changes of file, such file is not replaced. Both are guarded by lock of
+	 * userFiles.
+	 */
+	protected final static Map<File, WeakReference<UserFile>> userFiles = new WeakHashMap<File, WeakReference<UserFile>>();
+	protected final static Map<File, Integer> pendingUsers = new HashMap<File, Integer>();
+	protected final static AtomicLong userSequence = new AtomicLong();
+	protected final static Object userWriteLock = new Object();
+
+	protected File usersDirectory;
+
+	protected final Map<File, UserFile> dirtyUsers = new LinkedHashMap<File, UserFile>();
+	protected final Map<File, UserFile> writingUsers = new LinkedHashMap<File, UserFile>();
+	protected ScheduledFuture<?> pendingUserSave = null;
+	protected long userRetryDelay = 0;
+
+	public DirectoryBackend(PermissionManager manager, net.minecraftforge.common.Configuration config) {
+		super(manager, config);
+	}
+
+	@Override
+	public void initialize() {
+		super.initialize();
+
+		usersDirectory = new File(permissionsFile.getParentFile(), "users");
+		if (!usersDirectory.exists()) {
+			usersDirectory.mkdirs();
+		}
+
+		migrateUsers();
+	}
+
+	@Override
+	protected File locatePermissionsFile() {
+		String directoryName = config.get("permissions", "backends_dir_directory", "permissions").getString();
+
+		File directory = new File(getBaseDirectory(), directoryName);
+		if (!directory.exists()) {
+			directory.mkdirs();
+		}
+
+		return new File(directory, "permissions.yml");
+	}
+
+	/**
+	 * Move users of permissions file to user files. User files are written
+	 * before users are removed from permissions file.
+	 */
+	protected void migrateUsers() {
+		List<String> migrated = new ArrayList<String>();
+
+		synchronized (this) {
+			ConfigurationSection users = permissions.getConfigurationSection("users");
+			if (users == null) {
+				return;
+			}
+
+			for (Map.Entry<String, Object> entry : users.getValues(false).entrySet()) {
+				if (!(entry.getValue() instanceof ConfigurationSection)) {
+					continue;
+				}
+
+				UserFile file = getUserFile(entry.getKey());
+				file.getConfig().createSection(buildPath("users", entry.getKey()), (Map<?, ?>) FileJournal.toPlain(entry.getValue()));
+
+				markDirty(file);
+				migrated.add(entry.getKey());
+			}
+		}
+
+		if (!flushUsers()) {
+			throw new IllegalStateException("Error moving users from " + permissionsFile.getPath() + " to user files");
+		}
+
+		set("users", null);
+		flush();
+
+		if (!migrated.isEmpty()) {
+			Logger.getLogger("Minecraft").info("[PermissionsEx] Moved " + migrated.size() + " users from " + permissionsFile.getName() + " to user files");
+		}
+	}
+
+	@Override
+	public PermissionUser getUser(String userName) {
+		return new FileUser(new DirectoryEntity(userName, manager, this, getUserFile(userName)), this);
+	}
+
+	/**
+	 * Return file of user, file which is already loaded is reused. If it was
+	 * changed or removed on disk and has no pending changes, it is replaced by
+	 * newly loaded file. Loaded file is never reloaded in place, as entities
+	 * could still hold its sections.
+	 *
+	 * @param userName
+	 * @return loaded file, empty if user is not stored yet
+	 */
+	protected UserFile getUserFile(String userName) {
+		File location = getUserLocation(userName);
+		UserFile loaded = getLoadedUserFile(location);
+
+		if (loaded != null && !loaded.isChanged()) {
+			return loaded;
+		}
+
+		UserFile file = new UserFile(location);
+		file.load();
+
+		synchronized (userFiles) {
+			UserFile current = getLoadedUserFile(location);
+			if (current != null && (current != loaded || pendingUsers.containsKey(location))) {
+				return current; // loaded by other thread meanwhile or has changes to write
+			}
+
+			userFiles.remove(location); // weak key of replaced file should not be kept
+			userFiles.put(location, new WeakReference<UserFile>(file));
+		}
+
+		return file;
+	}
+
+	protected static UserFile getLoadedUserFile(File location) {
+		synchronized (userFiles) {
+			WeakReference<UserFile> reference = userFiles.get(location);
+
+			return reference == null ? null : reference.get();
+		}
+	}
+
+	@Override
+	public PermissionUser[] getRegisteredUsers() {
+		Set<String> userNames = new LinkedHashSet<String>();
+
+		File[] shards = usersDirectory.listFiles();
+		if (shards != null) {
+			for (File shard : shards) {
+				String[] files = shard.list();
+				if (files == null) {
+					continue;
+				}
+
+				for (String fileName : files) {
+					if (fileName.endsWith(USER_FILE_EXTENSION)) {
+						userNames.add(decodeName(fileName.substring(0, fileName.length() - USER_FILE_EXTENSION.length())));
+					}
+				}
+			}
+		}
+
+		synchronized (this) {
+			for (UserFile file : dirtyUsers.values()) {
+				ConfigurationSection users = file.getConfig().getConfigurationSection("users");
+				if (users != null) {
+					for (String userName : users.getKeys(false)) {
+						userNames.add(userName.toLowerCase());
+					}
+				}
+			}
+		}
+
+		List<PermissionUser> users = new ArrayList<PermissionUser>(userNames.size());
+		for (String userName : userNames) {
+			users.add(manager.getUser(userName));
+		}
+
+		return users.toArray(new PermissionUser[users.size()]);
+	}
+
+	/**
+	 * Read group names from user files without loading users, files waiting
+	 * to be written are read from memory
+	 */
+	@Override
+	public Map<String, Set<String>> getUserGroupNames() {
+		Map<String, Set<String>> userGroups = super.getUserGroupNames();
+
+		Map<File, UserFile> pending = new HashMap<File, UserFile>();
+		synchronized (this) {
+			pending.putAll(writingUsers);
+			pending.putAll(dirtyUsers);
+		}
+
+		File[] shards = usersDirectory.listFiles();
+		if (shards != null) {
+			for (File shard : shards) {
+				File[] files = shard.listFiles();
+				if (files == null) {
+					continue;
+				}
+
+				for (File file : files) {
+					if (file.getName().endsWith(USER_FILE_EXTENSION) && !pending.containsKey(file)) {
+						UserFile userFile = new UserFile(file);
+
+						try {
+							userFile.load();
+						} catch (IllegalStateException e) {
+							Logger.getLogger("Minecraft").warning("[PermissionsEx] " + e.getMessage() + ": " + e.getCause());
+							continue;
+						}
+
+						pending.put(file, userFile);
+					}
+				}
+			}
+		}
+
+		synchronized (this) {
+			for (UserFile userFile : pending.values()) {
+				ConfigurationSection usersSection = userFile.getConfig().getConfigurationSection("users");
+				if (usersSection != null) {
+					collectGroupNames(usersSection, userGroups);
+				}
+			}
+		}
+
+		return userGroups;
+	}
+
+	/**
+	 * Mark user file as changed. Changes are coalesced and written in
+	 * background after save delay, or at once if delay is 0.
+	 *
+	 * @param file
+	 */
+	public void userChanged(UserFile file) {
+		DirectoryBackend forward = null;
+
+		synchronized (this) {
+			if (successor instanceof DirectoryBackend) { // replaced backend
+				forward = (DirectoryBackend) successor;
+			}
+		}
+
+		if (forward != null) {
+			forward.userChanged(file);
+			manager.invalidateCaches();
+			return;
+		}
+
+		synchronized (this) {
+			markDirty(file);
+
+			if (saveDelay > 0 || userRetryDelay > 0) {
+				scheduleUserFlush(Math.max(saveDelay, userRetryDelay));
+				return;
+			}
+		}
+
+		flushUsers();
+	}
+
+	/**
+	 * Add file to changed files, it is counted as pending until it leaves
+	 * changed and writing files. Should be called while holding lock of
+	 * backend.
+	 */
+	protected void markDirty(UserFile file) {
+		File location = file.getFile();
+
+		if (!dirtyUsers.containsKey(location) && !writingUsers.containsKey(location)) {
+			synchronized (userFiles) {
+				Integer count = pendingUsers.get(location);
+				pendingUsers.put(location, count == null ? 1 : count + 1);
+			}
+		}
+
+		dirtyUsers.put(location, file);
+	}
+
+	protected static void releasePending(File location) {
+		synchronized (userFiles) {
+			Integer count = pendingUsers.get(location);
+
+			if (count == null || count <= 1) {
+				pendingUsers.remove(location);
+			} else {
+				pendingUsers.put(location, count - 1);
+			}
+		}
+	}
+
+	/**
+	 * Schedule writing of user files, unless it is scheduled already. Should
+	 * be called while holding lock of backend.
+	 *
+	 * @param delay
+	 *            milliseconds
+	 */
+	protected void scheduleUserFlush(long delay) {
+		if (pendingUserSave == null) {
+			pendingUserSave = getSaver().schedule(new Runnable() {
+				@Override
+				public void run() {
+					flushUsers();
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Override
+	public void flush() {
+		super.flush();
+		flushUsers();
+	}
+
+	@Override
+	public void close() {
+		flushUsers();
+
+		super.close();
+	}
+
+	/**
+	 * Write changed user files now, file of removed user is deleted. Files
+	 * which could not be written are retried in background, delay between
+	 * retries is doubled up to MAX_RETRY_DELAY.
+	 *
+	 * @return true if all files were written
+	 */
+	protected boolean flushUsers() {
+		Map<UserFile, String> data = new LinkedHashMap<UserFile, String>();
+		long sequence;
+
+		synchronized (this) {
+			if (pendingUserSave != null) {
+				pendingUserSave.cancel(false);
+				pendingUserSave = null;
+			}
+
+			if (dirtyUsers.isEmpty()) {
+				return true;
+			}
+
+			for (UserFile file : dirtyUsers.values()) {
+				data.put(file, file.isEmpty() ? null : file.getConfig().saveToString());
+			}
+
+			writingUsers.putAll(dirtyUsers);
+			dirtyUsers.clear();
+			sequence = userSequence.incrementAndGet();
+		}
+
+		List<UserFile> failed = new ArrayList<UserFile>();
+
+		synchronized (userWriteLock) {
+			for (Map.Entry<UserFile, String> entry : data.entrySet()) {
+				UserFile file = entry.getKey();
+				if (sequence < file.getWrittenSequence()) { // newer data is written already
+					continue;
+				}
+
+				try {
+					if (entry.getValue() != null) {
+						file.getFile().getParentFile().mkdirs();
+						write(file.getFile(), entry.getValue());
+					} else if (file.getFile().exists() && !file.getFile().delete()) {
+						throw new IOException("Failed to remove " + file.getFile().getPath());
+					}
+
+					file.setWrittenSequence(sequence);
+				} catch (IOException e) {
+					Logger.getLogger("Minecraft").severe("[PermissionsEx] Error during saving user file: " + e.getMessage());
+					failed.add(file);
+				}
+			}
+		}
+
+		synchronized (this) {
+			for (UserFile file : failed) {
+				if (!dirtyUsers.containsKey(file.getFile())) {
+					dirtyUsers.put(file.getFile(), file);
+				}
+			}
+
+			for (UserFile file : data.keySet()) {
+				if (writingUsers.get(file.getFile()) == file) {
+					writingUsers.remove(file.getFile());
+
+					if (!dirtyUsers.containsKey(file.getFile())) {
+						releasePending(file.getFile());
+					}
+				}
+			}
+
+			if (failed.isEmpty()) {
+				userRetryDelay = 0;
+			} else {
+				userRetryDelay = userRetryDelay == 0 ? Math.max(saveDelay, MIN_RETRY_DELAY) : Math.min(userRetryDelay * 2, MAX_RETRY_DELAY);
+				scheduleUserFlush(userRetryDelay);
+			}
+		}
+
+		return failed.isEmpty();
+	}
+
+	@Override
+	protected FileBackend createSuccessor() {
+		return new DirectoryBackend(manager, config);
+	}
+
+	/**
+	 * Return location of user file, users/ab/abcdef.yml for user AbcDef
+	 */
+	protected File getUserLocation(String userName) {
+		String fileName = encodeName(userName);
+		String shard = fileName.length() >= 2 ? fileName.substring(0, 2) : (fileName + "__").substring(0, 2);
+
+		return new File(new File(usersDirectory, shard), fileName + USER_FILE_EXTENSION);
+	}
+
+	/**
+	 * Lowercase name and escape characters which are not safe in file names
+	 */
+	protected static String encodeName(String name) {
+		StringBuilder builder = new StringBuilder();
+
+		for (char c : name.toLowerCase().toCharArray()) {
+			if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_' || c == '-') {
+				builder.append(c);
+			} else {
+				builder.append('%').append(String.format("%04x", (int) c));
+			}
+		}
+
+		return builder.toString();
+	}
+
+	protected static String decodeName(String fileName) {
+		StringBuilder builder = new StringBuilder();
+
+		for (int i = 0; i < fileName.length(); i++) {
+			char c = fileName.charAt(i);
+
+			if (c == '%' && i + 4 < fileName.length()) {
+				try {
+					builder.append((char) Integer.parseInt(fileName.substring(i + 1, i + 5), 16));
+					i += 4;
+					continue;
+				} catch (NumberFormatException e) {
+					// kept as is
+				}
+			}
+
+			builder.append(c);
+		}
+
+		return builder.toString();
+	}
+}
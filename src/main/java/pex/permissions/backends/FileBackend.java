@@ -18,15 +18,31 @@
  */
 package pex.permissions.backends;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.bukkit.configuration.ConfigurationSection;
@@ -37,7 +53,10 @@ import pex.permissions.PermissionBackend;
 import pex.permissions.PermissionGroup;
 import pex.permissions.PermissionManager;
 import pex.permissions.PermissionUser;
+import pex.permissions.TimedPermissionScheduler;
+import pex.permissions.backends.file.ConfigurationSnapshot;
 import pex.permissions.backends.file.FileGroup;
+import pex.permissions.backends.file.FileJournal;
 import pex.permissions.backends.file.FileUser;
 
 /**
@@ -47,31 +66,83 @@ import pex.permissions.backends.file.FileUser;
 public class FileBackend extends PermissionBackend {
 
 	public final static char PATH_SEPARATOR = '/';
+	protected final static String[] TIMED_TYPES = { "users", "groups" };
+	public final static int DEFAULT_SAVE_DELAY = 1000; // milliseconds
+	public final static int DEFAULT_JOURNAL_SIZE = 1024; // kilobytes
+	protected final static long MIN_RETRY_DELAY = 1000; // milliseconds
+	protected final static long MAX_RETRY_DELAY = 60000; // milliseconds
+	protected static ScheduledExecutorService saver = null;
 	public FileConfiguration permissions;
 	public File permissionsFile;
 
+	protected int saveDelay = DEFAULT_SAVE_DELAY;
+	protected boolean dirty = false;
+	protected long saveSequence = 0;
+	protected ScheduledFuture<?> pendingSave = null;
+	protected final Object writeLock = new Object();
+	protected long writtenSequence = 0;
+	protected long retryDelay = 0;
+
+	protected FileJournal journal = null;
+	protected long journalLimit = DEFAULT_JOURNAL_SIZE * 1024L;
+	protected boolean journalSync = true;
+	protected ScheduledFuture<?> pendingSync = null;
+
+	protected boolean useSnapshot = true;
+
+	protected List<Object[]> retiredChanges = null;
+	protected FileBackend successor = null;
+
 	public FileBackend(PermissionManager manager, net.minecraftforge.common.Configuration config) {
 		super(manager, config);
 	}
 
 	@Override
 	public void initialize() {
-		String permissionFilename = config.get("permissions", "backends_file_file", "permissions.yml").getString();
+		permissionsFile = locatePermissionsFile();
+		saveDelay = config.get("permissions", "backends_file_save_delay", DEFAULT_SAVE_DELAY).getInt(DEFAULT_SAVE_DELAY);
+		useSnapshot = config.get("permissions", "backends_file_snapshot", true).getBoolean(true);
 
-		String baseDir = config.get("permissions", "basedir", "config").getString();
+		boolean journalMode = config.get("permissions", "backends_file_journal", false).getBoolean(false);
+		journalLimit = config.get("permissions", "backends_file_journal_size", DEFAULT_JOURNAL_SIZE).getInt(DEFAULT_JOURNAL_SIZE) * 1024L;
+		journalSync = config.get("permissions", "backends_file_journal_fsync", true).getBoolean(true);
 
-		if (baseDir.contains("\\") && !"\\".equals(File.separator)) {
-			baseDir = baseDir.replace("\\", File.separator);
+		String journalFilename = permissionsFile.getName();
+		if (journalFilename.contains(".")) {
+			journalFilename = journalFilename.substring(0, journalFilename.lastIndexOf('.'));
 		}
+		journal = new FileJournal(new File(permissionsFile.getParentFile(), journalFilename + ".journal"));
 
-		File baseDirectory = new File(baseDir);
-		if (!baseDirectory.exists()) {
-			baseDirectory.mkdirs();
+		reload(); // replays stored journal
+
+		FileJournal storedJournal = journal;
+		journal = null;
+
+		if (journalMode) {
+			try {
+				storedJournal.open();
+				journal = storedJournal;
+
+				if (journal.size() > journalLimit) {
+					save();
+				}
+			} catch (IOException e) {
+				Logger.getLogger("Minecraft").severe("[PermissionsEx] Failed to open permissions journal, changes would be saved to permissions file: " + e.getMessage());
+			}
 		}
 
-		permissionsFile = new File(baseDir, permissionFilename);
+		if (journal == null && storedJournal.exists()) { // fold stored records into permissions file
+			dirty = true;
+			flush();
 
-		reload();
+			if (!dirty) {
+				try {
+					storedJournal.delete();
+				} catch (IOException e) {
+					Logger.getLogger("Minecraft").warning("[PermissionsEx] Failed to remove permissions journal: " + e.getMessage());
+				}
+			}
+		}
 
 		if (!permissionsFile.exists()) {
 			try {
@@ -93,6 +164,34 @@ public class FileBackend extends PermissionBackend {
 		}
 	}
 
+	/**
+	 * Return file which holds permissions, its directory is created
+	 */
+	protected File locatePermissionsFile() {
+		String permissionFilename = config.get("permissions", "backends_file_file", "permissions.yml").getString();
+
+		return new File(getBaseDirectory(), permissionFilename);
+	}
+
+	/**
+	 * Return configured directory of permission files, it is created if
+	 * missing
+	 */
+	protected File getBaseDirectory() {
+		String baseDir = config.get("permissions", "basedir", "config").getString();
+
+		if (baseDir.contains("\\") && !"\\".equals(File.separator)) {
+			baseDir = baseDir.replace("\\", File.separator);
+		}
+
+		File baseDirectory = new File(baseDir);
+		if (!baseDirectory.exists()) {
+			baseDirectory.mkdirs();
+		}
+
+		return baseDirectory;
+	}
+
 	@Override
 	public String[] getWorldInheritance(String world) {
 		if (world != null && !world.isEmpty()) {
@@ -106,13 +205,12 @@ public class FileBackend extends PermissionBackend {
 	}
 
 	@Override
-	public void setWorldInheritance(String world, String[] parentWorlds) {
+	public synchronized void setWorldInheritance(String world, String[] parentWorlds) {
 		if (world == null || world.isEmpty()) {
 			return;
 		}
 
-		permissions.set(buildPath("worlds", world, "inheritance"), Arrays.asList(parentWorlds));
-		save();
+		set(buildPath("worlds", world, "inheritance"), Arrays.asList(parentWorlds));
 	}
 
 	@Override
@@ -156,7 +254,7 @@ public class FileBackend extends PermissionBackend {
 	}
 
 	@Override
-	public void setDefaultGroup(PermissionGroup group, String worldName) {
+	public synchronized void setDefaultGroup(PermissionGroup group, String worldName) {
 		ConfigurationSection groups = permissions.getConfigurationSection("groups");
 
 		String defaultGroupProperty = "default";
@@ -168,17 +266,15 @@ public class FileBackend extends PermissionBackend {
 			if (entry.getValue() instanceof ConfigurationSection) {
 				ConfigurationSection groupSection = (ConfigurationSection) entry.getValue();
 
-				groupSection.set(defaultGroupProperty, false);
+				Object previous = groupSection.get(defaultGroupProperty);
+				Object value = groupSection.getName().equals(group.getName()) ? Boolean.TRUE : null;
 
-				if (!groupSection.getName().equals(group.getName())) {
-					groupSection.set(defaultGroupProperty, null);
-				} else {
-					groupSection.set(defaultGroupProperty, true);
+				if (previous == null ? value != null : !previous.equals(value)) {
+					groupSection.set(defaultGroupProperty, value);
+					changed(buildPath("groups", entry.getKey(), defaultGroupProperty), value);
 				}
 			}
 		}
-
-		save();
 	}
 
 	@Override
@@ -213,6 +309,61 @@ public class FileBackend extends PermissionBackend {
 		return users.toArray(new PermissionUser[users.size()]);
 	}
 
+	@Override
+	public synchronized Map<String, Set<String>> getUserGroupNames() {
+		Map<String, Set<String>> userGroups = new HashMap<String, Set<String>>();
+
+		ConfigurationSection usersSection = permissions.getConfigurationSection("users");
+		if (usersSection != null) {
+			collectGroupNames(usersSection, userGroups);
+		}
+
+		return userGroups;
+	}
+
+	/**
+	 * Collect group names of users in all worlds, both list and old
+	 * comma-separated format are read
+	 *
+	 * @param usersSection
+	 *            section which holds users
+	 * @param userGroups
+	 *            map of user name to group names to fill
+	 */
+	protected static void collectGroupNames(ConfigurationSection usersSection, Map<String, Set<String>> userGroups) {
+		for (Map.Entry<String, Object> entry : usersSection.getValues(false).entrySet()) {
+			if (!(entry.getValue() instanceof ConfigurationSection)) {
+				continue;
+			}
+
+			ConfigurationSection userSection = (ConfigurationSection) entry.getValue();
+			Set<String> groups = new HashSet<String>();
+
+			addGroupNames(userSection.get("group"), groups);
+
+			ConfigurationSection worldsSection = userSection.getConfigurationSection("worlds");
+			if (worldsSection != null) {
+				for (String worldName : worldsSection.getKeys(false)) {
+					addGroupNames(worldsSection.get(buildPath(worldName, "group")), groups);
+				}
+			}
+
+			userGroups.put(entry.getKey(), groups);
+		}
+	}
+
+	protected static void addGroupNames(Object value, Set<String> groups) {
+		if (value instanceof String) { // old style
+			groups.addAll(Arrays.asList(((String) value).split(",")));
+		} else if (value instanceof List) {
+			for (Object groupName : (List<?>) value) {
+				if (groupName != null) {
+					groups.add(groupName.toString());
+				}
+			}
+		}
+	}
+
 	public static String buildPath(String... path) {
 		StringBuilder builder = new StringBuilder();
 
@@ -238,22 +389,585 @@ public class FileBackend extends PermissionBackend {
 		permissions.options().pathSeparator(PATH_SEPARATOR);
 
 		try {
-			permissions.load(permissionsFile);
+			if (useSnapshot) {
+				ConfigurationSnapshot.load(permissionsFile, permissions);
+			} else {
+				permissions.load(permissionsFile);
+			}
 		} catch (FileNotFoundException e) {
 			// do nothing
 		} catch (Throwable e) {
 			throw new IllegalStateException("Error loading permissions file", e);
 		}
+
+		if (journal != null) {
+			try {
+				int records = journal.replay(permissions);
+
+				if (records > 0) {
+					Logger.getLogger("Minecraft").info("[PermissionsEx] Replayed " + records + " records of permissions journal");
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException("Error loading permissions journal", e);
+			}
+		}
+	}
+
+	/**
+	 * Return new backend which reads stored data. Changes made while it is
+	 * being initialized are recorded and applied to it, later changes of this
+	 * backend are forwarded to it, so nothing is lost while new model is
+	 * built from it.
+	 */
+	@Override
+	public PermissionBackend reloaded() {
+		synchronized (this) {
+			retiredChanges = new ArrayList<Object[]>();
+		}
+
+		FileBackend backend;
+
+		try {
+			backend = createSuccessor();
+			backend.initialize();
+		} catch (RuntimeException e) {
+			synchronized (this) { // this backend stays in use, store recorded changes
+				List<Object[]> changes = retiredChanges;
+				retiredChanges = null;
+
+				for (Object[] change : changes) {
+					changed((String) change[0], change[1]);
+				}
+			}
+
+			throw e;
+		}
+
+		boolean applied;
+
+		synchronized (this) {
+			applied = !retiredChanges.isEmpty();
+
+			for (Object[] change : retiredChanges) {
+				backend.apply((String) change[0], change[1]);
+			}
+
+			retiredChanges = null;
+			successor = backend;
+		}
+
+		if (applied) {
+			manager.invalidateCaches();
+		}
+
+		return backend;
+	}
+
+	/**
+	 * Return new uninitialized backend of the same kind
+	 */
+	protected FileBackend createSuccessor() {
+		return new FileBackend(manager, config);
+	}
+
+	/**
+	 * Set value of path which was changed in previous backend and record
+	 * change. Existing section is refilled in place, so entities which hold
+	 * it see new values.
+	 *
+	 * @param path
+	 * @param value
+	 *            plain value, see FileJournal.toPlain()
+	 */
+	protected synchronized void apply(String path, Object value) {
+		if (value instanceof Map) {
+			ConfigurationSection section = permissions.getConfigurationSection(path);
+
+			if (section == null) {
+				permissions.createSection(path, (Map<?, ?>) value);
+			} else {
+				for (String key : section.getKeys(false)) {
+					section.set(key, null);
+				}
+
+				for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+					if (entry.getValue() instanceof Map) {
+						section.createSection(entry.getKey().toString(), (Map<?, ?>) entry.getValue());
+					} else {
+						section.set(entry.getKey().toString(), entry.getValue());
+					}
+				}
+			}
+		} else {
+			permissions.set(path, value);
+		}
+
+		changed(path, value);
+	}
+
+	/**
+	 * Forget entity of current model whose node was replaced or removed as
+	 * whole by forwarded change, it is loaded again on next access
+	 */
+	protected void forgetEntity(String path) {
+		String[] nodes = path.split(String.valueOf(PATH_SEPARATOR), 3);
+
+		if (nodes.length != 2) {
+			return;
+		}
+
+		if (nodes[0].equals("users")) {
+			manager.resetUser(nodes[1]);
+		} else if (nodes[0].equals("groups")) {
+			manager.resetGroup(nodes[1]);
+		}
+	}
+
+	/**
+	 * Set value of path and record change
+	 *
+	 * @param path
+	 * @param value
+	 *            new value, null to remove path
+	 */
+	public synchronized void set(String path, Object value) {
+		permissions.set(path, value);
+
+		changed(path, value);
+	}
+
+	/**
+	 * Record change of path which is already done in permissions. In journal
+	 * mode change is appended to journal, and journal is compacted into
+	 * permissions file once it grows over size limit. Otherwise permissions
+	 * are saved. Should be called while holding lock of backend.
+	 *
+	 * Changes of replaced backend are forwarded to backend which replaced it.
+	 *
+	 * @param path
+	 *            full path in permissions
+	 * @param value
+	 *            new value, null if path is removed
+	 */
+	public void changed(String path, Object value) {
+		FileBackend forward;
+
+		synchronized (this) {
+			if (retiredChanges != null) {
+				retiredChanges.add(new Object[] { path, FileJournal.toPlain(value) });
+				return;
+			}
+
+			forward = successor;
+			if (forward != null) {
+				forward.apply(path, FileJournal.toPlain(value));
+			}
+		}
+
+		if (forward != null) {
+			forgetEntity(path);
+			manager.invalidateCaches();
+			return;
+		}
+
+		synchronized (this) {
+			if (journal != null) {
+				try {
+					journal.append(path, value);
+
+					if (journalSync && pendingSync == null) {
+						if (saveDelay > 0) {
+							pendingSync = getSaver().schedule(new Runnable() {
+								@Override
+								public void run() {
+									syncJournal();
+								}
+							}, saveDelay, TimeUnit.MILLISECONDS);
+						} else {
+							syncJournal();
+						}
+					}
+
+					if (journal.size() <= journalLimit) {
+						return;
+					}
+				} catch (IOException e) {
+					Logger.getLogger("Minecraft").severe("[PermissionsEx] Error during writing permissions journal, saving permissions file: " + e.getMessage());
+				}
+			}
+		}
+
+		save(); // compaction writes fresh permissions file and drops journal
+	}
+
+	/**
+	 * Force journal records to disk
+	 */
+	protected synchronized void syncJournal() {
+		if (pendingSync != null) {
+			pendingSync.cancel(false);
+			pendingSync = null;
+		}
+
+		if (journal == null) {
+			return;
+		}
+
+		try {
+			journal.sync();
+		} catch (IOException e) {
+			Logger.getLogger("Minecraft").severe("[PermissionsEx] Error during syncing permissions journal: " + e.getMessage());
+		}
 	}
 
+	/**
+	 * Mark permissions as changed. Changes are coalesced and written in
+	 * background after save delay, or at once if delay is 0. While failed
+	 * write is retried, changes are written with retry. Changes of
+	 * permissions should be done while holding lock of backend.
+	 */
 	public void save() {
+		synchronized (this) {
+			if (retiredChanges != null || successor != null) { // changes are stored by successor
+				return;
+			}
+
+			dirty = true;
+
+			if (saveDelay > 0 || retryDelay > 0) {
+				scheduleFlush(Math.max(saveDelay, retryDelay));
+				return;
+			}
+		}
+
+		flush();
+	}
+
+	/**
+	 * Schedule flush on saver thread, unless it is scheduled already. Should
+	 * be called while holding lock of backend.
+	 *
+	 * @param delay
+	 *            milliseconds
+	 */
+	protected void scheduleFlush(long delay) {
+		if (pendingSave == null) {
+			pendingSave = getSaver().schedule(new Runnable() {
+				@Override
+				public void run() {
+					flush();
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Write pending changes now. Copy of data is taken under backend lock,
+	 * then it is serialized and written to temporary file which replaces
+	 * permissions file. Failed write is retried in background, delay between
+	 * retries is doubled up to MAX_RETRY_DELAY.
+	 *
+	 * In journal mode journal is rotated along with copying, records which are
+	 * folded into written file are removed after write.
+	 */
+	@Override
+	public void flush() {
+		Map<?, ?> values;
+		String header;
+		long sequence;
+		boolean rotated = false;
+
+		synchronized (this) {
+			syncJournal();
+
+			if (pendingSave != null) {
+				pendingSave.cancel(false);
+				pendingSave = null;
+			}
+
+			if (!dirty) {
+				return;
+			}
+
+			values = (Map<?, ?>) FileJournal.toPlain(permissions);
+			header = permissions.options().header();
+			dirty = false;
+			sequence = ++saveSequence;
+
+			if (journal != null) {
+				try {
+					journal.rotate();
+					rotated = true;
+				} catch (IOException e) {
+					Logger.getLogger("Minecraft").severe("[PermissionsEx] Error during rotating permissions journal: " + e.getMessage());
+				}
+			}
+		}
+
+		Exception failure = null;
+
 		try {
-			permissions.save(permissionsFile);
+			String data = toYaml(values, header);
+
+			synchronized (writeLock) {
+				if (sequence < writtenSequence) { // newer data is written already
+					return;
+				}
+
+				write(permissionsFile, data);
+				writtenSequence = sequence;
+
+				if (useSnapshot) { // next load does not parse written file
+					ConfigurationSnapshot.save(permissionsFile, data.getBytes(), values, header);
+				}
+			}
 		} catch (IOException e) {
-			Logger.getLogger("Minecraft").severe("[PermissionsEx] Error during saving permissions file: " + e.getMessage());
+			failure = e;
+		} catch (RuntimeException e) {
+			failure = e;
+		}
+
+		synchronized (this) {
+			if (failure != null) {
+				dirty = true;
+				retry(failure);
+			} else {
+				retryDelay = 0;
+
+				if (rotated && journal != null && sequence == saveSequence) { // not rotated again meanwhile
+					journal.removeOld();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Schedule retry of failed write, with doubled delay of previous retry.
+	 * Stack trace is logged for first failure only. Should be called while
+	 * holding lock of backend.
+	 */
+	protected void retry(Exception failure) {
+		boolean first = retryDelay == 0;
+		retryDelay = first ? Math.max(saveDelay, MIN_RETRY_DELAY) : Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+
+		String message = "[PermissionsEx] Error during saving permissions file, retrying in " + retryDelay + "ms";
+		if (first) {
+			Logger.getLogger("Minecraft").log(Level.SEVERE, message, failure);
+		} else {
+			Logger.getLogger("Minecraft").severe(message + ": " + failure);
+		}
+
+		scheduleFlush(retryDelay);
+	}
+
+	/**
+	 * Serialize plain copy of permissions, see FileJournal.toPlain()
+	 */
+	protected static String toYaml(Map<?, ?> values, String header) {
+		YamlConfiguration config = new YamlConfiguration();
+		config.options().pathSeparator(PATH_SEPARATOR);
+		config.options().header(header);
+
+		for (Map.Entry<?, ?> entry : values.entrySet()) {
+			if (entry.getValue() instanceof Map) {
+				config.createSection(entry.getKey().toString(), (Map<?, ?>) entry.getValue());
+			} else {
+				config.set(entry.getKey().toString(), entry.getValue());
+			}
+		}
+
+		return config.saveToString();
+	}
+
+	/**
+	 * Write pending changes, cancel scheduled tasks and close journal
+	 */
+	@Override
+	public void close() {
+		flush();
+
+		synchronized (this) {
+			syncJournal();
+
+			if (pendingSave != null) {
+				pendingSave.cancel(false);
+				pendingSave = null;
+			}
+
+			if (journal != null) {
+				try {
+					journal.close();
+				} catch (IOException e) {
+					Logger.getLogger("Minecraft").warning("[PermissionsEx] Failed to close permissions journal: " + e.getMessage());
+				}
+
+				journal = null;
+			}
 		}
 	}
 
+	/**
+	 * Write data to temporary file and replace file with it
+	 *
+	 * @param file
+	 * @param data
+	 * @throws IOException
+	 */
+	protected static void write(File file, String data) throws IOException {
+		File tempFile = new File(file.getPath() + ".tmp");
+
+		FileOutputStream output = new FileOutputStream(tempFile);
+		try {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(output));
+			writer.write(data);
+			writer.flush();
+			output.getFD().sync();
+		} finally {
+			output.close();
+		}
+
+		if (!tempFile.renameTo(file)) {
+			// some platforms can't rename over existing file
+			if (!file.delete() || !tempFile.renameTo(file)) {
+				throw new IOException("Failed to replace " + file.getPath() + " with " + tempFile.getPath());
+			}
+		}
+	}
+
+	protected static synchronized ScheduledExecutorService getSaver() {
+		if (saver == null) {
+			saver = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "PermissionsEx-FileSaver");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+
+		return saver;
+	}
+
+	@Override
+	public synchronized List<TimedPermissionScheduler.Grant> loadTimedPermissions() {
+		List<TimedPermissionScheduler.Grant> grants = new LinkedList<TimedPermissionScheduler.Grant>();
+
+		for (String type : TIMED_TYPES) {
+			ConfigurationSection section = permissions.getConfigurationSection(buildPath("timed", type));
+			if (section == null) {
+				continue;
+			}
+
+			for (String entityName : section.getKeys(false)) {
+				for (Map<?, ?> entry : section.getMapList(entityName)) {
+					Object permission = entry.get("permission");
+					Object expires = entry.get("expires");
+
+					if (permission == null || !(expires instanceof Number)) {
+						continue;
+					}
+
+					Object world = entry.get("world");
+
+					grants.add(new TimedPermissionScheduler.Grant(type.equals("groups"), entityName, world == null ? "" : world.toString(), permission.toString(), ((Number) expires).longValue()));
+				}
+			}
+		}
+
+		return grants;
+	}
+
+	@Override
+	public synchronized void saveTimedPermission(TimedPermissionScheduler.Grant grant) {
+		String path = timedPath(grant);
+		List<Map<String, Object>> entries = getTimedEntries(path);
+
+		removeTimedEntry(entries, grant);
+
+		Map<String, Object> entry = new LinkedHashMap<String, Object>();
+		entry.put("permission", grant.getPermission());
+		if (!grant.getWorld().isEmpty()) {
+			entry.put("world", grant.getWorld());
+		}
+		entry.put("expires", grant.getExpiresAt());
+		entries.add(entry);
+
+		set(path, entries);
+	}
+
+	@Override
+	public synchronized void removeTimedPermissions(Collection<TimedPermissionScheduler.Grant> grants) {
+		for (TimedPermissionScheduler.Grant grant : grants) {
+			String path = timedPath(grant);
+			List<Map<String, Object>> entries = getTimedEntries(path);
+
+			if (removeTimedEntry(entries, grant)) {
+				set(path, entries.isEmpty() ? null : entries);
+			}
+		}
+	}
+
+	@Override
+	public synchronized void pruneTimedPermissions(long time) {
+		for (String type : TIMED_TYPES) {
+			ConfigurationSection section = permissions.getConfigurationSection(buildPath("timed", type));
+			if (section == null) {
+				continue;
+			}
+
+			for (String entityName : section.getKeys(false)) {
+				List<Map<String, Object>> entries = getTimedEntries(buildPath("timed", type, entityName));
+				Iterator<Map<String, Object>> iterator = entries.iterator();
+
+				boolean pruned = false;
+				while (iterator.hasNext()) {
+					Object expires = iterator.next().get("expires");
+					if (!(expires instanceof Number) || ((Number) expires).longValue() <= time) {
+						iterator.remove();
+						pruned = true;
+					}
+				}
+
+				if (pruned) {
+					set(buildPath("timed", type, entityName), entries.isEmpty() ? null : entries);
+				}
+			}
+		}
+	}
+
+	protected static String timedPath(TimedPermissionScheduler.Grant grant) {
+		return buildPath("timed", grant.isGroup() ? "groups" : "users", grant.getEntityName());
+	}
+
+	@SuppressWarnings("unchecked")
+	protected List<Map<String, Object>> getTimedEntries(String path) {
+		List<Map<String, Object>> entries = new LinkedList<Map<String, Object>>();
+
+		for (Map<?, ?> entry : permissions.getMapList(path)) {
+			entries.add(new LinkedHashMap<String, Object>((Map<String, Object>) entry));
+		}
+
+		return entries;
+	}
+
+	protected static boolean removeTimedEntry(List<Map<String, Object>> entries, TimedPermissionScheduler.Grant grant) {
+		boolean removed = false;
+		Iterator<Map<String, Object>> iterator = entries.iterator();
+
+		while (iterator.hasNext()) {
+			Map<String, Object> entry = iterator.next();
+			Object world = entry.get("world");
+
+			if (grant.getPermission().equals(entry.get("permission")) && grant.getWorld().equals(world == null ? "" : world.toString())) {
+				iterator.remove();
+				removed = true;
+			}
+		}
+
+		return removed;
+	}
+
 	@Override
 	public void dumpData(OutputStreamWriter writer) throws IOException {
 		throw new UnsupportedOperationException("Sorry, data dumping is broken!");
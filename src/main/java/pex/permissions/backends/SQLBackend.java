@@ -23,11 +23,14 @@ import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import net.minecraft.server.MinecraftServer;
@@ -36,6 +39,7 @@ import pex.permissions.PermissionBackend;
 import pex.permissions.PermissionGroup;
 import pex.permissions.PermissionManager;
 import pex.permissions.PermissionUser;
+import pex.permissions.TimedPermissionScheduler;
 import pex.permissions.backends.sql.SQLConnection;
 import pex.permissions.backends.sql.SQLEntity;
 import pex.permissions.backends.sql.SQLGroup;
@@ -68,6 +72,7 @@ public class SQLBackend extends PermissionBackend {
 
 		setupAliases(config);
 		deployTables(dbDriver);
+		deployTimedTable();
 	}
 
 	@Override
@@ -149,6 +154,32 @@ public class SQLBackend extends PermissionBackend {
 		return users;
 	}
 
+	@Override
+	public Map<String, Set<String>> getUserGroupNames() {
+		Map<String, Set<String>> userGroups = new HashMap<String, Set<String>>();
+
+		try {
+			ResultSet result = sql.select("SELECT `child`, `parent` FROM `permissions_inheritance` WHERE `type` = ?", SQLEntity.Type.USER.ordinal());
+
+			while (result.next()) {
+				String userName = result.getString("child");
+				Set<String> groups = userGroups.get(userName);
+
+				if (groups == null) {
+					userGroups.put(userName, groups = new HashSet<String>());
+				}
+
+				groups.add(result.getString("parent"));
+			}
+
+			result.close();
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+
+		return userGroups;
+	}
+
 	protected final void setupAliases(net.minecraftforge.common.Configuration config) {
 		/*
 		 * ConfigurationSection aliases =
@@ -197,6 +228,75 @@ public class SQLBackend extends PermissionBackend {
 		}
 	}
 
+	/**
+	 * Create table for timed permissions, it is not part of bundled scheme
+	 */
+	protected final void deployTimedTable() {
+		if (sql.isTableExist("permissions_timed")) {
+			return;
+		}
+
+		try {
+			sql.executeUpdate("CREATE TABLE `permissions_timed` (`name` varchar(50) NOT NULL, `type` int NOT NULL, `world` varchar(50) NOT NULL DEFAULT '', `permission` varchar(200) NOT NULL, `expires` bigint NOT NULL, PRIMARY KEY (`name`, `type`, `world`, `permission`));");
+		} catch (SQLException e) {
+			Logger.getLogger("Minecraft").severe("[PermissionsEx-SQL] Failed to create timed permissions table: " + e.getMessage());
+		}
+	}
+
+	@Override
+	public List<TimedPermissionScheduler.Grant> loadTimedPermissions() {
+		List<TimedPermissionScheduler.Grant> grants = new LinkedList<TimedPermissionScheduler.Grant>();
+
+		try {
+			ResultSet result = sql.select("SELECT `name`, `type`, `world`, `permission`, `expires` FROM `permissions_timed`");
+
+			while (result.next()) {
+				boolean group = result.getInt("type") == SQLEntity.Type.GROUP.ordinal();
+				String world = result.getString("world");
+
+				grants.add(new TimedPermissionScheduler.Grant(group, result.getString("name"), world == null ? "" : world, result.getString("permission"), result.getLong("expires")));
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+
+		return grants;
+	}
+
+	@Override
+	public void saveTimedPermission(TimedPermissionScheduler.Grant grant) {
+		try {
+			sql.executeUpdate("DELETE FROM `permissions_timed` WHERE `name` = ? AND `type` = ? AND `world` = ? AND `permission` = ?", grant.getEntityName(), timedType(grant), grant.getWorld(), grant.getPermission());
+			sql.executeUpdate("INSERT INTO `permissions_timed` (`name`, `type`, `world`, `permission`, `expires`) VALUES (?, ?, ?, ?, ?)", grant.getEntityName(), timedType(grant), grant.getWorld(), grant.getPermission(), grant.getExpiresAt());
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void removeTimedPermissions(Collection<TimedPermissionScheduler.Grant> grants) {
+		try {
+			for (TimedPermissionScheduler.Grant grant : grants) {
+				sql.executeUpdate("DELETE FROM `permissions_timed` WHERE `name` = ? AND `type` = ? AND `world` = ? AND `permission` = ?", grant.getEntityName(), timedType(grant), grant.getWorld(), grant.getPermission());
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void pruneTimedPermissions(long time) {
+		try {
+			sql.executeUpdate("DELETE FROM `permissions_timed` WHERE `expires` <= ?", time);
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	protected static int timedType(TimedPermissionScheduler.Grant grant) {
+		return grant.isGroup() ? SQLEntity.Type.GROUP.ordinal() : SQLEntity.Type.USER.ordinal();
+	}
+
 	@Override
 	public void dumpData(OutputStreamWriter writer) throws IOException {
 
@@ -0,0 +1,24 @@
+package pex.permissions.backends.dir;
+
+import pex.permissions.PermissionManager;
+import pex.permissions.backends.DirectoryBackend;
+import pex.permissions.backends.file.FileEntity;
+
+/**
+ * User stored in its own file, changes rewrite only this file
+ */
+public class DirectoryEntity extends FileEntity {
+
+	protected final UserFile file;
+
+	public DirectoryEntity(String entityName, PermissionManager manager, DirectoryBackend backend, UserFile file) {
+		super(entityName, manager, backend, file.getConfig(), "users");
+
+		this.file = file;
+	}
+
+	@Override
+	protected void store(String path, Object value) {
+		((DirectoryBackend) backend).userChanged(file);
+	}
+}
@@ -0,0 +1,86 @@
+package pex.permissions.backends.dir;
+
+import java.io.File;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import pex.permissions.backends.FileBackend;
+
+/**
+ * File of one user. It has same layout as permissions file, but holds only
+ * users section with this user, so it could be edited by hand the same way.
+ */
+public class UserFile {
+
+	protected final File file;
+	protected final YamlConfiguration config;
+
+	protected long writtenSequence = 0;
+	protected long modified = 0;
+
+	public UserFile(File file) {
+		this.file = file;
+		this.config = new YamlConfiguration();
+		this.config.options().pathSeparator(FileBackend.PATH_SEPARATOR);
+	}
+
+	/**
+	 * Load file if it exists, should be called once on new file
+	 */
+	public void load() {
+		modified = file.lastModified();
+
+		if (!file.exists()) {
+			return;
+		}
+
+		try {
+			config.load(file);
+		} catch (Throwable e) {
+			throw new IllegalStateException("Error loading user file " + file.getPath(), e);
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public YamlConfiguration getConfig() {
+		return config;
+	}
+
+	/**
+	 * Return save sequence of data which was written last, used by backend to
+	 * skip outdated writes
+	 */
+	public long getWrittenSequence() {
+		return writtenSequence;
+	}
+
+	/**
+	 * Set save sequence of written data, modification time of written file is
+	 * remembered as well
+	 */
+	public void setWrittenSequence(long writtenSequence) {
+		this.writtenSequence = writtenSequence;
+		this.modified = file.lastModified();
+	}
+
+	/**
+	 * @return true if file was changed or removed on disk since it was loaded
+	 *         or written
+	 */
+	public boolean isChanged() {
+		return file.lastModified() != modified;
+	}
+
+	/**
+	 * @return true if file holds no users and should be removed
+	 */
+	public boolean isEmpty() {
+		ConfigurationSection users = config.getConfigurationSection("users");
+
+		return users == null || users.getKeys(false).isEmpty();
+	}
+}
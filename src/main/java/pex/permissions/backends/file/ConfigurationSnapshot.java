@@ -0,0 +1,466 @@
+package pex.permissions.backends.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.FileConfiguration;
+
+/**
+ * Binary snapshot of loaded YAML file, which is used instead of parsing YAML
+ * while file is not changed. Snapshot is written next to file after it is
+ * parsed or written and is valid while size, modification time and SHA-1
+ * hash of file match ones stored in snapshot.
+ *
+ * Layout (big-endian): magic, version, file size, file modification time,
+ * file hash, payload length and CRC32, payload. Payload is string table
+ * (count, then length-prefixed UTF-8 strings) followed by header string index
+ * and value tree, where keys and strings are indexes in string table.
+ */
+public class ConfigurationSnapshot {
+
+	protected final static int MAGIC = 0x50455853; // PEXS
+	protected final static int VERSION = 1;
+	protected final static String SUFFIX = ".snapshot";
+	protected final static String CHARSET = "UTF-8";
+
+	protected final static byte NULL = 0;
+	protected final static byte SECTION = 1;
+	protected final static byte MAP = 2;
+	protected final static byte LIST = 3;
+	protected final static byte STRING = 4;
+	protected final static byte INTEGER = 5;
+	protected final static byte LONG = 6;
+	protected final static byte DOUBLE = 7;
+	protected final static byte BOOLEAN = 8;
+
+	/**
+	 * Load file into configuration, from snapshot if it is valid. Otherwise
+	 * file is parsed and snapshot of it is written.
+	 *
+	 * @param file
+	 *            YAML file
+	 * @param config
+	 *            empty configuration
+	 * @throws FileNotFoundException
+	 *             if file does not exist
+	 * @throws IOException
+	 * @throws InvalidConfigurationException
+	 */
+	public static void load(File file, FileConfiguration config) throws IOException, InvalidConfigurationException {
+		byte[] contents = readFile(file);
+		long modified = file.lastModified();
+		byte[] hash = hash(contents);
+
+		File snapshotFile = getSnapshotFile(file);
+
+		if (snapshotFile.exists()) {
+			try {
+				if (read(snapshotFile, contents.length, modified, hash, config)) {
+					return;
+				}
+			} catch (IOException e) {
+				Logger.getLogger("Minecraft").warning("[PermissionsEx] Failed to read snapshot of " + file.getName() + ": " + e.getMessage());
+			} catch (RuntimeException e) {
+				Logger.getLogger("Minecraft").warning("[PermissionsEx] Snapshot of " + file.getName() + " is broken: " + e);
+			}
+
+			for (String key : config.getKeys(false)) { // drop partially read values
+				config.set(key, null);
+			}
+		}
+
+		config.loadFromString(new String(contents));
+
+		try {
+			write(snapshotFile, contents.length, modified, hash, config);
+		} catch (IOException e) {
+			Logger.getLogger("Minecraft").warning("[PermissionsEx] Failed to write snapshot of " + file.getName() + ": " + e.getMessage());
+			snapshotFile.delete();
+		}
+	}
+
+	/**
+	 * Write snapshot of file which was just written, so next load does not
+	 * have to parse it. Snapshot is removed if it could not be written.
+	 *
+	 * @param file
+	 *            written YAML file
+	 * @param contents
+	 *            bytes of written file
+	 * @param values
+	 *            written tree as plain nested maps, see FileJournal.toPlain()
+	 * @param header
+	 *            header of written file, or null
+	 */
+	public static void save(File file, byte[] contents, Map<?, ?> values, String header) {
+		File snapshotFile = getSnapshotFile(file);
+
+		try {
+			Writer writer = new Writer();
+			int headerIndex = header == null ? -1 : writer.string(header);
+
+			if (!writer.writeSection(values)) {
+				snapshotFile.delete();
+				return;
+			}
+
+			write(snapshotFile, contents.length, file.lastModified(), hash(contents), headerIndex, writer);
+		} catch (IOException e) {
+			Logger.getLogger("Minecraft").warning("[PermissionsEx] Failed to write snapshot of " + file.getName() + ": " + e.getMessage());
+			snapshotFile.delete();
+		}
+	}
+
+	public static File getSnapshotFile(File file) {
+		return new File(file.getPath() + SUFFIX);
+	}
+
+	/**
+	 * Read snapshot into configuration
+	 *
+	 * @return false if snapshot does not match file
+	 */
+	protected static boolean read(File snapshotFile, long size, long modified, byte[] hash, ConfigurationSection config) throws IOException {
+		ByteBuffer buffer;
+
+		FileInputStream input = new FileInputStream(snapshotFile);
+		try {
+			FileChannel channel = input.getChannel();
+			buffer = ByteBuffer.allocate((int) channel.size());
+
+			while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+				// read whole file
+			}
+
+			buffer.flip();
+		} finally {
+			input.close();
+		}
+
+		if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != size || buffer.getLong() != modified) {
+			return false;
+		}
+
+		byte[] storedHash = new byte[buffer.getShort()];
+		buffer.get(storedHash);
+		if (!Arrays.equals(hash, storedHash)) {
+			return false;
+		}
+
+		int payloadLength = buffer.getInt();
+		long checksum = buffer.getLong();
+		if (payloadLength != buffer.remaining()) {
+			throw new IOException("Snapshot is truncated");
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), buffer.arrayOffset() + buffer.position(), payloadLength);
+		if (crc.getValue() != checksum) {
+			throw new IOException("Snapshot checksum mismatch");
+		}
+
+		String[] strings = new String[buffer.getInt()];
+		for (int i = 0; i < strings.length; i++) {
+			int length = buffer.getInt();
+			strings[i] = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, CHARSET);
+			buffer.position(buffer.position() + length);
+		}
+
+		int header = buffer.getInt();
+		if (header >= 0 && config instanceof FileConfiguration) {
+			((FileConfiguration) config).options().header(strings[header]);
+		}
+
+		if (buffer.get() != SECTION) {
+			throw new IllegalStateException("Root of snapshot is not a section");
+		}
+
+		readSection(buffer, strings, config);
+
+		return true;
+	}
+
+	protected static void readSection(ByteBuffer buffer, String[] strings, ConfigurationSection section) {
+		int count = buffer.getInt();
+
+		for (int i = 0; i < count; i++) {
+			String key = strings[buffer.getInt()];
+			byte type = buffer.get();
+
+			if (type == SECTION) {
+				readSection(buffer, strings, section.createSection(key));
+			} else {
+				section.set(key, readValue(type, buffer, strings));
+			}
+		}
+	}
+
+	protected static Object readValue(byte type, ByteBuffer buffer, String[] strings) {
+		switch (type) {
+			case NULL:
+				return null;
+			case STRING:
+				return strings[buffer.getInt()];
+			case INTEGER:
+				return buffer.getInt();
+			case LONG:
+				return buffer.getLong();
+			case DOUBLE:
+				return buffer.getDouble();
+			case BOOLEAN:
+				return buffer.get() != 0;
+			case LIST: {
+				int count = buffer.getInt();
+				List<Object> list = new ArrayList<Object>(count);
+
+				for (int i = 0; i < count; i++) {
+					list.add(readValue(buffer.get(), buffer, strings));
+				}
+
+				return list;
+			}
+			case MAP: {
+				int count = buffer.getInt();
+				Map<String, Object> map = new LinkedHashMap<String, Object>();
+
+				for (int i = 0; i < count; i++) {
+					String key = strings[buffer.getInt()];
+					map.put(key, readValue(buffer.get(), buffer, strings));
+				}
+
+				return map;
+			}
+			default:
+				throw new IllegalStateException("Unknown value type " + type);
+		}
+	}
+
+	/**
+	 * Write snapshot of configuration, existing snapshot is removed if
+	 * configuration has values which could not be stored
+	 */
+	protected static void write(File snapshotFile, long size, long modified, byte[] hash, FileConfiguration config) throws IOException {
+		Writer writer = new Writer();
+
+		String header = config.options().header();
+		int headerIndex = header == null ? -1 : writer.string(header);
+
+		if (!writer.writeSection(config)) {
+			snapshotFile.delete();
+			return;
+		}
+
+		write(snapshotFile, size, modified, hash, headerIndex, writer);
+	}
+
+	protected static void write(File snapshotFile, long size, long modified, byte[] hash, int headerIndex, Writer writer) throws IOException {
+		ByteArrayOutputStream payload = new ByteArrayOutputStream(writer.body.size() + writer.strings.size() * 16);
+		DataOutputStream out = new DataOutputStream(payload);
+
+		out.writeInt(writer.strings.size());
+		for (String string : writer.strings.keySet()) {
+			byte[] bytes = string.getBytes(CHARSET);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		out.writeInt(headerIndex);
+		writer.body.writeTo(out);
+		out.flush();
+
+		CRC32 crc = new CRC32();
+		crc.update(payload.toByteArray());
+
+		File tempFile = new File(snapshotFile.getPath() + ".tmp");
+		DataOutputStream output = new DataOutputStream(new FileOutputStream(tempFile));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeLong(size);
+			output.writeLong(modified);
+			output.writeShort(hash.length);
+			output.write(hash);
+			output.writeInt(payload.size());
+			output.writeLong(crc.getValue());
+			payload.writeTo(output);
+		} finally {
+			output.close();
+		}
+
+		if (!tempFile.renameTo(snapshotFile)) {
+			// some platforms can't rename over existing file
+			if (!snapshotFile.delete() || !tempFile.renameTo(snapshotFile)) {
+				tempFile.delete();
+				throw new IOException("Failed to replace " + snapshotFile.getPath());
+			}
+		}
+	}
+
+	protected static byte[] readFile(File file) throws IOException {
+		InputStream input = new FileInputStream(file);
+
+		try {
+			ByteArrayOutputStream data = new ByteArrayOutputStream((int) file.length());
+			byte[] buffer = new byte[8192];
+			int read;
+
+			while ((read = input.read(buffer)) != -1) {
+				data.write(buffer, 0, read);
+			}
+
+			return data.toByteArray();
+		} finally {
+			input.close();
+		}
+	}
+
+	protected static byte[] hash(byte[] contents) {
+		try {
+			return MessageDigest.getInstance("SHA-1").digest(contents);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Encoder of value tree, strings are collected into table as they are met
+	 */
+	protected static class Writer {
+
+		protected final Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+		protected final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		protected final DataOutputStream out = new DataOutputStream(body);
+
+		protected int string(String string) {
+			Integer index = strings.get(string);
+
+			if (index == null) {
+				strings.put(string, index = strings.size());
+			}
+
+			return index;
+		}
+
+		/**
+		 * Write plain map as section, nested maps are sections too
+		 *
+		 * @return false if map has value which could not be stored
+		 */
+		protected boolean writeSection(Map<?, ?> values) throws IOException {
+			out.writeByte(SECTION);
+			out.writeInt(values.size());
+
+			for (Map.Entry<?, ?> entry : values.entrySet()) {
+				if (!(entry.getKey() instanceof String)) {
+					return false;
+				}
+
+				out.writeInt(string((String) entry.getKey()));
+
+				if (entry.getValue() instanceof Map) {
+					if (!writeSection((Map<?, ?>) entry.getValue())) {
+						return false;
+					}
+				} else if (!writeValue(entry.getValue())) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		/**
+		 * @return false if section has value which could not be stored
+		 */
+		protected boolean writeSection(ConfigurationSection section) throws IOException {
+			Map<String, Object> values = section.getValues(false);
+
+			out.writeByte(SECTION);
+			out.writeInt(values.size());
+
+			for (Map.Entry<String, Object> entry : values.entrySet()) {
+				out.writeInt(string(entry.getKey()));
+
+				if (!writeValue(entry.getValue())) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		protected boolean writeValue(Object value) throws IOException {
+			if (value instanceof ConfigurationSection) {
+				return writeSection((ConfigurationSection) value);
+			} else if (value == null) {
+				out.writeByte(NULL);
+			} else if (value instanceof String) {
+				out.writeByte(STRING);
+				out.writeInt(string((String) value));
+			} else if (value instanceof Integer) {
+				out.writeByte(INTEGER);
+				out.writeInt((Integer) value);
+			} else if (value instanceof Long) {
+				out.writeByte(LONG);
+				out.writeLong((Long) value);
+			} else if (value instanceof Double) {
+				out.writeByte(DOUBLE);
+				out.writeDouble((Double) value);
+			} else if (value instanceof Boolean) {
+				out.writeByte(BOOLEAN);
+				out.writeByte((Boolean) value ? 1 : 0);
+			} else if (value instanceof List) {
+				List<?> list = (List<?>) value;
+
+				out.writeByte(LIST);
+				out.writeInt(list.size());
+
+				for (Object item : list) {
+					if (!writeValue(item)) {
+						return false;
+					}
+				}
+			} else if (value instanceof Map) {
+				Map<?, ?> map = (Map<?, ?>) value;
+
+				out.writeByte(MAP);
+				out.writeInt(map.size());
+
+				for (Map.Entry<?, ?> entry : map.entrySet()) {
+					if (!(entry.getKey() instanceof String)) {
+						return false;
+					}
+
+					out.writeInt(string((String) entry.getKey()));
+
+					if (!writeValue(entry.getValue())) {
+						return false;
+					}
+				}
+			} else {
+				return false; // dates, big numbers and others are parsed from YAML
+			}
+
+			return true;
+		}
+	}
+}
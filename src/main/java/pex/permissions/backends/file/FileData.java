@@ -44,14 +44,13 @@ public class FileData implements PermissionsUserData, PermissionsGroupData {
 		}
 
 		ConfigurationSection users = config.getConfigurationSection(basePath);
+		String key = users == null ? null : FileEntity.findKey(users, entityName);
 
-		if (users != null) {
-			for (Map.Entry<String, Object> entry : users.getValues(false).entrySet()) {
-				if (entry.getKey().equalsIgnoreCase(entityName) && entry.getValue() instanceof ConfigurationSection) {
-					nodePath = FileBackend.buildPath(basePath, entityName);
-					return (ConfigurationSection) entry.getValue();
-				}
-			}
+		if (key != null) {
+			nodePath = FileBackend.buildPath(basePath, key);
+			virtual = false;
+
+			return users.getConfigurationSection(key);
 		}
 
 		// Silly workaround for empty nodes
@@ -25,6 +25,8 @@ import java.util.List;
 import java.util.Map;
 
 import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.MemorySection;
+import org.bukkit.configuration.file.FileConfiguration;
 
 import pex.permissions.PermissionEntity;
 import pex.permissions.PermissionManager;
@@ -34,46 +36,84 @@ public class FileEntity extends PermissionEntity {
 
 	protected ConfigurationSection node;
 	protected FileBackend backend;
+	protected FileConfiguration root;
 	protected String nodePath;
 
 	public FileEntity(String entityName, PermissionManager manager, FileBackend backend, String baseNode) {
+		this(entityName, manager, backend, backend.permissions, baseNode);
+	}
+
+	/**
+	 * @param root
+	 *            configuration which holds entity, changes of it are stored
+	 *            through store()
+	 */
+	public FileEntity(String entityName, PermissionManager manager, FileBackend backend, FileConfiguration root, String baseNode) {
 		super(entityName, manager);
 
 		this.backend = backend;
+		this.root = root;
 		node = getNode(baseNode, getName());
 	}
 
 	protected final ConfigurationSection getNode(String baseNode, String entityName) {
 		nodePath = FileBackend.buildPath(baseNode, entityName);
 
-		ConfigurationSection entityNode = backend.permissions.getConfigurationSection(nodePath);
+		ConfigurationSection entityNode = root.getConfigurationSection(nodePath);
 
 		if (entityNode != null) {
 			virtual = false;
 			return entityNode;
 		}
 
-		ConfigurationSection users = backend.permissions.getConfigurationSection(baseNode);
+		synchronized (backend) {
+			ConfigurationSection users = root.getConfigurationSection(baseNode);
+			String key = users == null ? null : findKey(users, entityName);
 
-		if (users != null) {
-			for (Map.Entry<String, Object> entry : users.getValues(false).entrySet()) {
-				if (entry.getKey().equalsIgnoreCase(entityName) && entry.getValue() instanceof ConfigurationSection) {
-					setName(entry.getKey());
-					nodePath = FileBackend.buildPath(baseNode, getName());
-					virtual = false;
+			if (key != null) {
+				setName(key);
+				nodePath = FileBackend.buildPath(baseNode, getName());
+				virtual = false;
 
-					return (ConfigurationSection) entry.getValue();
-				}
+				return users.getConfigurationSection(key);
 			}
+
+			virtual = true;
+
+			// Silly workaround for empty nodes
+			ConfigurationSection section = root.createSection(nodePath);
+			root.set(nodePath, null);
+
+			return section;
 		}
+	}
 
-		virtual = true;
+	/**
+	 * Return key of child section which matches name ignoring case. Memory
+	 * sections are looked up through their lowercased key index, other ones
+	 * are scanned. Section is scanned as well if indexed key is not a section,
+	 * as other key with same lowercased name could be one.
+	 *
+	 * @param section
+	 * @param name
+	 * @return key as it is stored or null if there is no such child section
+	 */
+	protected static String findKey(ConfigurationSection section, String name) {
+		if (section instanceof MemorySection) {
+			String key = ((MemorySection) section).getKeyIgnoreCase(name);
+
+			if (key == null || section.isConfigurationSection(key)) {
+				return key;
+			}
+		}
 
-		// Silly workaround for empty nodes
-		ConfigurationSection section = backend.permissions.createSection(nodePath);
-		backend.permissions.set(nodePath, null);
+		for (Map.Entry<String, Object> entry : section.getValues(false).entrySet()) {
+			if (entry.getKey().equalsIgnoreCase(name) && entry.getValue() instanceof ConfigurationSection) {
+				return entry.getKey();
+			}
+		}
 
-		return section;
+		return null;
 	}
 
 	public ConfigurationSection getConfigNode() {
@@ -93,9 +133,13 @@ public class FileEntity extends PermissionEntity {
 
 	@Override
 	public void setPermissions(String[] permissions, String world) {
-		node.set(formatPath(world, "permissions"), permissions.length > 0 ? Arrays.asList(permissions) : null);
+		synchronized (backend) {
+			String path = formatPath(world, "permissions");
+			Object value = permissions.length > 0 ? Arrays.asList(permissions) : null;
+			node.set(path, value);
 
-		save();
+			changed(path, value);
+		}
 	}
 
 	@Override
@@ -128,9 +172,12 @@ public class FileEntity extends PermissionEntity {
 
 	@Override
 	public void setOption(String option, String value, String world) {
-		node.set(formatPath(world, "options", option), value);
+		synchronized (backend) {
+			String path = formatPath(world, "options", option);
+			node.set(path, value);
 
-		save();
+			changed(path, value);
+		}
 	}
 
 	@Override
@@ -145,16 +192,22 @@ public class FileEntity extends PermissionEntity {
 
 	@Override
 	public void setPrefix(String prefix, String worldName) {
-		node.set(formatPath(worldName, "prefix"), prefix);
+		synchronized (backend) {
+			String path = formatPath(worldName, "prefix");
+			node.set(path, prefix);
 
-		save();
+			changed(path, prefix);
+		}
 	}
 
 	@Override
 	public void setSuffix(String suffix, String worldName) {
-		node.set(formatPath(worldName, "suffix"), suffix);
+		synchronized (backend) {
+			String path = formatPath(worldName, "suffix");
+			node.set(path, suffix);
 
-		save();
+			changed(path, suffix);
+		}
 	}
 
 	@Override
@@ -208,19 +261,54 @@ public class FileEntity extends PermissionEntity {
 		return options;
 	}
 
+	/**
+	 * Record change of entity node, virtual entity is saved as whole
+	 *
+	 * @param path
+	 *            path relative to entity node
+	 * @param value
+	 *            new value, null if path is removed
+	 */
+	protected void changed(String path, Object value) {
+		synchronized (backend) {
+			if (virtual) {
+				save();
+			} else {
+				store(FileBackend.buildPath(nodePath, path), value);
+			}
+		}
+	}
+
+	/**
+	 * Store change of root configuration, called while holding lock of
+	 * backend
+	 *
+	 * @param path
+	 *            full path in root configuration
+	 * @param value
+	 *            new value, null if path is removed
+	 */
+	protected void store(String path, Object value) {
+		backend.changed(path, value);
+	}
+
 	@Override
 	public void save() {
-		backend.permissions.set(nodePath, node);
+		synchronized (backend) {
+			root.set(nodePath, node);
 
-		backend.save();
-		virtual = false;
+			store(nodePath, node);
+			virtual = false;
+		}
 	}
 
 	@Override
 	public void remove() {
-		backend.permissions.set(nodePath, null);
+		synchronized (backend) {
+			root.set(nodePath, null);
 
-		backend.save();
+			store(nodePath, null);
+		}
 	}
 
 	protected static String formatPath(String worldName, String node, String value) {
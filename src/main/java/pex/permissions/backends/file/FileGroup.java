@@ -34,10 +34,13 @@ import pex.permissions.backends.FileBackend;
 public class FileGroup extends ProxyPermissionGroup {
 
 	protected ConfigurationSection node;
+	protected FileBackend backend;
 
 	public FileGroup(String name, PermissionManager manager, FileBackend backend) {
 		super(new FileEntity(name, manager, backend, "groups"));
 
+		this.backend = backend;
+
 		node = ((FileEntity) backendEntity).getConfigNode();
 	}
 
@@ -58,8 +61,14 @@ public class FileGroup extends ProxyPermissionGroup {
 			return;
 		}
 
-		node.set(FileEntity.formatPath(worldName, "inheritance"), Arrays.asList(parentGroups));
+		synchronized (backend) {
+			String path = FileEntity.formatPath(worldName, "inheritance");
+			node.set(path, Arrays.asList(parentGroups));
+
+			((FileEntity) backendEntity).changed(path, Arrays.asList(parentGroups));
+		}
 
-		save();
+		clearMembersCache();
+		manager.updateGroupIndex(this);
 	}
 }
@@ -0,0 +1,296 @@
+package pex.permissions.backends.file;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.Yaml;
+
+/**
+ * Append-only journal of changes of permissions file. Every record is one
+ * line which sets path to value (flow-style YAML, null removes path), so
+ * replaying records over data which already contains some of them gives the
+ * same result.
+ *
+ * Journal is rotated when permissions file is written: current records are
+ * moved to .old journal and new records go to fresh journal. Old journal is
+ * removed after permissions file is written, until then both are replayed on
+ * load.
+ */
+public class FileJournal {
+
+	protected final static String CHARSET = "UTF-8";
+
+	protected final File file;
+	protected final File oldFile;
+	protected final Yaml yaml;
+
+	protected FileOutputStream output = null;
+	protected Writer writer = null;
+	protected long size = 0;
+	protected boolean broken = false;
+
+	public FileJournal(File file) {
+		this.file = file;
+		this.oldFile = new File(file.getPath() + ".old");
+
+		DumperOptions options = new DumperOptions();
+		options.setDefaultFlowStyle(DumperOptions.FlowStyle.FLOW);
+		options.setWidth(Integer.MAX_VALUE);
+		this.yaml = new Yaml(options);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return true if there are stored records
+	 */
+	public boolean exists() {
+		return file.length() > 0 || oldFile.exists();
+	}
+
+	/**
+	 * Apply records of old and current journal
+	 *
+	 * @param config
+	 *            root section of permissions
+	 * @return count of applied records
+	 * @throws IOException
+	 */
+	public int replay(ConfigurationSection config) throws IOException {
+		return replay(oldFile, config) + replay(file, config);
+	}
+
+	protected int replay(File journalFile, ConfigurationSection config) throws IOException {
+		if (!journalFile.exists()) {
+			return 0;
+		}
+
+		String data = readFile(journalFile);
+		int count = 0;
+		int start = 0;
+		int end;
+
+		// last line without line break is incomplete record, it is skipped
+		while ((end = data.indexOf('\n', start)) != -1) {
+			String line = data.substring(start, end);
+			start = end + 1;
+
+			int separator = line.indexOf('\t');
+			if (separator <= 0) {
+				continue;
+			}
+
+			String path = line.substring(0, separator);
+
+			try {
+				apply(config, path, yaml.load(line.substring(separator + 1)));
+				count++;
+			} catch (RuntimeException e) {
+				Logger.getLogger("Minecraft").warning("[PermissionsEx] Skipped broken journal record of \"" + path + "\": " + e.getMessage());
+			}
+		}
+
+		return count;
+	}
+
+	protected static void apply(ConfigurationSection config, String path, Object value) {
+		if (value instanceof Map) {
+			config.set(path, null);
+			config.createSection(path, (Map<?, ?>) value);
+		} else {
+			config.set(path, value);
+		}
+	}
+
+	/**
+	 * Open journal for appending
+	 *
+	 * @throws IOException
+	 */
+	public void open() throws IOException {
+		output = new FileOutputStream(file, true);
+		writer = new BufferedWriter(new OutputStreamWriter(output, CHARSET));
+		size = file.length();
+	}
+
+	/**
+	 * Append record, record is passed to operating system at once
+	 *
+	 * @param path
+	 *            full path in permissions
+	 * @param value
+	 *            new value, null if path is removed
+	 * @throws IOException
+	 */
+	public void append(String path, Object value) throws IOException {
+		String dumped = yaml.dump(toPlain(value));
+		String record = path + '\t' + dumped.replace("\n", " ").trim() + '\n';
+
+		if (writer == null) {
+			open();
+		}
+
+		if (broken) { // terminate partially written record
+			record = '\n' + record;
+		}
+
+		broken = true;
+		writer.write(record);
+		writer.flush();
+		broken = false;
+
+		size += record.length();
+	}
+
+	/**
+	 * Force appended records to disk
+	 *
+	 * @throws IOException
+	 */
+	public void sync() throws IOException {
+		if (writer == null) {
+			return;
+		}
+
+		writer.flush();
+		output.getFD().sync();
+	}
+
+	/**
+	 * @return approximate size of current journal in bytes
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Move current records to old journal and start new one. If old journal
+	 * was not removed yet, records are appended to it.
+	 *
+	 * @throws IOException
+	 */
+	public void rotate() throws IOException {
+		close();
+
+		try {
+			if (!oldFile.exists()) {
+				if (file.exists() && !file.renameTo(oldFile)) {
+					throw new IOException("Failed to rename " + file.getPath() + " to " + oldFile.getPath());
+				}
+			} else if (file.length() > 0) {
+				String records = '\n' + readFile(file); // old journal could end with partial record
+
+				FileOutputStream oldOutput = new FileOutputStream(oldFile, true);
+				try {
+					oldOutput.write(records.getBytes(CHARSET));
+					oldOutput.getFD().sync();
+				} finally {
+					oldOutput.close();
+				}
+
+				new FileOutputStream(file).close(); // truncate
+			}
+		} finally {
+			broken = false;
+			open();
+		}
+	}
+
+	/**
+	 * Remove old journal, should be called after its records are written to
+	 * permissions file
+	 */
+	public void removeOld() {
+		oldFile.delete();
+	}
+
+	public void close() throws IOException {
+		if (writer != null) {
+			writer.close();
+			writer = null;
+			output = null;
+		}
+	}
+
+	/**
+	 * Close and remove journal files
+	 */
+	public void delete() throws IOException {
+		close();
+
+		file.delete();
+		oldFile.delete();
+	}
+
+	/**
+	 * Convert configuration section to plain nested maps, lists and maps are
+	 * copied, other values are returned as is
+	 */
+	public static Object toPlain(Object value) {
+		if (value instanceof ConfigurationSection) {
+			Map<String, Object> map = new LinkedHashMap<String, Object>();
+
+			for (Map.Entry<String, Object> entry : ((ConfigurationSection) value).getValues(false).entrySet()) {
+				map.put(entry.getKey(), toPlain(entry.getValue()));
+			}
+
+			return map;
+		}
+
+		if (value instanceof Map) {
+			Map<Object, Object> map = new LinkedHashMap<Object, Object>();
+
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				map.put(entry.getKey(), toPlain(entry.getValue()));
+			}
+
+			return map;
+		}
+
+		if (value instanceof List) {
+			List<Object> list = new ArrayList<Object>(((List<?>) value).size());
+
+			for (Object item : (List<?>) value) {
+				list.add(toPlain(item));
+			}
+
+			return list;
+		}
+
+		return value;
+	}
+
+	protected static String readFile(File file) throws IOException {
+		InputStream input = new FileInputStream(file);
+
+		try {
+			ByteArrayOutputStream data = new ByteArrayOutputStream((int) file.length());
+			byte[] buffer = new byte[8192];
+			int read;
+
+			while ((read = input.read(buffer)) != -1) {
+				data.write(buffer, 0, read);
+			}
+
+			return data.toString(CHARSET);
+		} finally {
+			input.close();
+		}
+	}
+}
@@ -37,11 +37,15 @@ public class FileUser extends ProxyPermissionUser {
 	protected FileBackend backend;
 
 	public FileUser(String playerName, PermissionManager manager, FileBackend backend) {
-		super(new FileEntity(playerName, manager, backend, "users"));
+		this(new FileEntity(playerName, manager, backend, "users"), backend);
+	}
+
+	public FileUser(FileEntity entity, FileBackend backend) {
+		super(entity);
 
 		this.backend = backend;
 
-		node = ((FileEntity) backendEntity).getConfigNode();
+		node = entity.getConfigNode();
 	}
 
 	@SuppressWarnings("unchecked")
@@ -59,8 +63,10 @@ public class FileUser extends ProxyPermissionUser {
 			}
 
 			// Now migrate to new system
-			node.set("group", Arrays.asList(groupsArray));
-			save();
+			synchronized (backend) {
+				node.set("group", Arrays.asList(groupsArray));
+				((FileEntity) backendEntity).changed("group", Arrays.asList(groupsArray));
+			}
 
 			return groupsArray;
 		} else if (groups instanceof List) {
@@ -76,8 +82,13 @@ public class FileUser extends ProxyPermissionUser {
 			return;
 		}
 
-		node.set(FileEntity.formatPath(worldName, "group"), Arrays.asList(groups));
+		synchronized (backend) {
+			String path = FileEntity.formatPath(worldName, "group");
+			node.set(path, Arrays.asList(groups));
+
+			((FileEntity) backendEntity).changed(path, Arrays.asList(groups));
+		}
 
-		save();
+		manager.updateGroupIndex(this);
 	}
 }
@@ -43,5 +43,8 @@ public class SQLGroup extends ProxyPermissionGroup {
 		}
 
 		backend.setParents(parentGroups, worldName);
+
+		clearMembersCache();
+		manager.updateGroupIndex(this);
 	}
 }
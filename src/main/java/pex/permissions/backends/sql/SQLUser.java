@@ -40,6 +40,7 @@ public class SQLUser extends ProxyPermissionUser {
 		backend.setParents(parentGroups, worldName);
 
 		clearCache();
+		manager.updateGroupIndex(this);
 	}
 
 	@Override
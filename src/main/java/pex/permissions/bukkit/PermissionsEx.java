@@ -19,6 +19,14 @@
 package pex.permissions.bukkit;
 
 import java.io.File;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -26,6 +34,10 @@ import net.minecraft.command.CommandBase;
 import net.minecraft.command.ICommandSender;
 import net.minecraft.command.ServerCommandManager;
 import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.network.INetworkManager;
+import net.minecraft.network.NetLoginHandler;
+import net.minecraft.network.packet.NetHandler;
+import net.minecraft.network.packet.Packet1Login;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.util.ChatMessageComponent;
 import net.minecraft.util.EnumChatFormatting;
@@ -36,6 +48,7 @@ import pex.permissions.PermissionBackend;
 import pex.permissions.PermissionGroup;
 import pex.permissions.PermissionManager;
 import pex.permissions.PermissionUser;
+import pex.permissions.backends.DirectoryBackend;
 import pex.permissions.backends.FileBackend;
 import pex.permissions.backends.SQLBackend;
 import pex.permissions.bukkit.commands.GroupCommands;
@@ -47,12 +60,19 @@ import pex.permissions.commands.CommandsManager;
 import pex.permissions.exceptions.PermissionsNotAvailable;
 import cpw.mods.fml.common.FMLLog;
 import cpw.mods.fml.common.IPlayerTracker;
+import cpw.mods.fml.common.ITickHandler;
 import cpw.mods.fml.common.Mod;
 import cpw.mods.fml.common.Mod.EventHandler;
+import cpw.mods.fml.common.TickType;
 import cpw.mods.fml.common.event.FMLPreInitializationEvent;
 import cpw.mods.fml.common.event.FMLServerStartedEvent;
+import cpw.mods.fml.common.network.IConnectionHandler;
 import cpw.mods.fml.common.network.NetworkMod;
+import cpw.mods.fml.common.network.NetworkRegistry;
+import cpw.mods.fml.common.network.Player;
 import cpw.mods.fml.common.registry.GameRegistry;
+import cpw.mods.fml.common.registry.TickRegistry;
+import cpw.mods.fml.relauncher.Side;
 
 @Mod(modid = "PermissionsEx", name = "PermissionsEx", version = "1.5.0.0")
 @NetworkMod(clientSideRequired = false, serverSideRequired = true)
@@ -61,6 +81,19 @@ public class PermissionsEx implements IPermissions {
 	public static PermissionsEx instance;
 
 	protected static final Logger logger = Logger.getLogger("PermissionsEx");
+
+	protected static final Queue<Runnable> serverTasks = new ConcurrentLinkedQueue<Runnable>();
+
+	/**
+	 * Runs tasks on server thread at the end of next server tick, used to
+	 * reply to players from I/O threads
+	 */
+	public static final Executor SERVER_EXECUTOR = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			serverTasks.add(command);
+		}
+	};
 	protected PermissionManager permissionsManager;
 	protected CommandsManager commandsManager;
 	protected Configuration config;
@@ -73,6 +106,7 @@ public class PermissionsEx implements IPermissions {
 		logger.setParent(FMLLog.getLogger());
 		PermissionBackend.registerBackendAlias("sql", SQLBackend.class);
 		PermissionBackend.registerBackendAlias("file", FileBackend.class);
+		PermissionBackend.registerBackendAlias("dir", DirectoryBackend.class);
 
 		logger.log(Level.INFO, "[PermissionsEx] PermissionEx plugin initialized.");
 	}
@@ -114,6 +148,12 @@ public class PermissionsEx implements IPermissions {
 		cleaner.logLastPlayerLogin = config.get("permissions", "log-players", cleaner.logLastPlayerLogin).getBoolean(cleaner.logLastPlayerLogin);
 		GameRegistry.registerPlayerTracker(cleaner);
 
+		// Warm up permissions of connecting players
+		NetworkRegistry.instance().registerConnectionHandler(new ConnectionListener());
+
+		// Run tasks posted to server thread
+		TickRegistry.registerTickHandler(new ServerTaskHandler(), Side.SERVER);
+
 		// register service
 		// this.getServer().getServicesManager().register(PermissionManager.class,
 		// this.permissionsManager, this, ServicePriority.Normal);
@@ -217,6 +257,26 @@ public class PermissionsEx implements IPermissions {
 		return permissionsManager.has(player, permission, world);
 	}
 
+	@Override
+	public BitSet checkMany(String player, String world, String[] permissions) {
+		return permissionsManager.checkMany(player, world, permissions);
+	}
+
+	@Override
+	public List<String> filterPlayers(Collection<String> players, String world, String permission) {
+		return permissionsManager.filterPlayers(players, world, permission);
+	}
+
+	@Override
+	public Future<Boolean> hasAsync(String player, String permission, String world) {
+		return permissionsManager.hasAsync(player, permission, world);
+	}
+
+	@Override
+	public void preload(Collection<String> players) {
+		permissionsManager.preload(players);
+	}
+
 	@Override
 	public String prefix(String player, String world) {
 		return permissionsManager.getUser(player).getPrefix(world);
@@ -232,6 +292,9 @@ public class PermissionsEx implements IPermissions {
 
 		@Override
 		public void onPlayerLogin(EntityPlayer event) {
+			// online players are never evicted from user cache
+			getPermissionManager().getUserRegistry().pin(event.username);
+
 			if (!logLastPlayerLogin) {
 				return;
 			}
@@ -249,7 +312,7 @@ public class PermissionsEx implements IPermissions {
 				getPermissionManager().getUser(event).setOption("last-logout-time", Long.toString(System.currentTimeMillis() / 1000L));
 			}
 
-			getPermissionManager().resetUser(event.username);
+			getPermissionManager().departUser(event.username);
 		}
 
 		@Override
@@ -261,6 +324,72 @@ public class PermissionsEx implements IPermissions {
 		}
 	}
 
+	public class ConnectionListener implements IConnectionHandler {
+
+		@Override
+		public String connectionReceived(NetLoginHandler netHandler, INetworkManager manager) {
+			// "name [/address]", name is known after handshake
+			String player = netHandler.getUsernameAndAddress();
+			int separator = player == null ? -1 : player.indexOf(" [");
+
+			if (separator > 0) {
+				getPermissionManager().prewarmUser(player.substring(0, separator));
+			}
+
+			return null; // accept connection
+		}
+
+		@Override
+		public void playerLoggedIn(Player player, NetHandler netHandler, INetworkManager manager) {
+		}
+
+		@Override
+		public void connectionOpened(NetHandler netClientHandler, String server, int port, INetworkManager manager) {
+		}
+
+		@Override
+		public void connectionOpened(NetHandler netClientHandler, MinecraftServer server, INetworkManager manager) {
+		}
+
+		@Override
+		public void connectionClosed(INetworkManager manager) {
+		}
+
+		@Override
+		public void clientLoggedIn(NetHandler clientHandler, INetworkManager manager, Packet1Login login) {
+		}
+	}
+
+	public class ServerTaskHandler implements ITickHandler {
+
+		@Override
+		public void tickStart(EnumSet<TickType> type, Object... tickData) {
+		}
+
+		@Override
+		public void tickEnd(EnumSet<TickType> type, Object... tickData) {
+			Runnable task;
+
+			while ((task = serverTasks.poll()) != null) {
+				try {
+					task.run();
+				} catch (Throwable e) {
+					logger.log(Level.WARNING, "[PermissionsEx] Error in server task", e);
+				}
+			}
+		}
+
+		@Override
+		public EnumSet<TickType> ticks() {
+			return EnumSet.of(TickType.SERVER);
+		}
+
+		@Override
+		public String getLabel() {
+			return "PermissionsEx";
+		}
+	}
+
 	public static void sendChatToPlayer(EntityPlayer entity, String msg) {
 		entity.sendChatToPlayer(ChatMessageComponent.createFromText(msg));
 	}
@@ -24,23 +24,43 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 import net.minecraft.command.ICommandSender;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.util.EnumChatFormatting;
 import pex.permissions.PermissionBackend;
 import pex.permissions.PermissionManager;
+import pex.permissions.PermissionMatcher;
+import pex.permissions.PermissionModel;
+import pex.permissions.RegExpMatcher;
+import pex.permissions.SegmentTrieMatcher;
 import pex.permissions.bukkit.PermissionsEx;
 import pex.permissions.commands.Command;
 import pex.permissions.commands.CommandsManager.CommandBinding;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 public class UtilityCommands extends PermissionsCommand {
 
 	@Command(name = "pex", syntax = "reload", permission = "permissions.manage.reload", description = "Reload environment")
-	public void reload(Object plugin, ICommandSender sender, Map<String, String> args) {
-		PermissionsEx.getPermissionManager().reset();
-
-		PermissionsEx.sendChatToPlayer(sender, EnumChatFormatting.WHITE + "Permissions reloaded");
+	public void reload(Object plugin, final ICommandSender sender, Map<String, String> args) {
+		final ListenableFuture<PermissionModel> reload = PermissionsEx.getPermissionManager().reloadAsync();
+
+		reload.addListener(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					PermissionModel model = reload.get();
+
+					PermissionsEx.sendChatToPlayer(sender, EnumChatFormatting.WHITE + "Permissions reloaded in " + model.getBuildTime() + "ms (" + model + ")");
+				} catch (ExecutionException e) {
+					PermissionsEx.sendChatToPlayer(sender, EnumChatFormatting.RED + "Failed to reload permissions: " + e.getCause().getMessage());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, PermissionsEx.SERVER_EXECUTOR);
 	}
 
 	@Command(name = "pex", syntax = "config <node> [value]", permission = "permissions.manage.config", description = "Print or set <node> [value]")
@@ -154,6 +174,23 @@ public class UtilityCommands extends PermissionsCommand {
 		logger.warning(debugStatusMessage);
 	}
 
+	@Command(name = "pex", syntax = "stats", permission = "permissions.manage.stats", description = "Print permission cache statistics")
+	public void printStats(Object plugin, ICommandSender sender, Map<String, String> args) {
+		PermissionMatcher matcher = PermissionsEx.getPermissionManager().getPermissionMatcher();
+
+		PermissionsEx.sendChatToPlayer(sender, EnumChatFormatting.WHITE + "Matcher: " + matcher.getClass().getSimpleName());
+
+		if (matcher instanceof RegExpMatcher) {
+			PermissionsEx.sendChatToPlayer(sender, "  Pattern cache: " + ((RegExpMatcher) matcher).getPatternCache());
+		} else if (matcher instanceof SegmentTrieMatcher) {
+			PermissionsEx.sendChatToPlayer(sender, "  Expression cache: " + ((SegmentTrieMatcher) matcher).getExpressionCache());
+		}
+
+		PermissionsEx.sendChatToPlayer(sender, EnumChatFormatting.WHITE + "Users: " + PermissionsEx.getPermissionManager().getUserRegistry());
+		PermissionsEx.sendChatToPlayer(sender, EnumChatFormatting.WHITE + "Groups: " + PermissionsEx.getPermissionManager().getGroupRegistry());
+		PermissionsEx.sendChatToPlayer(sender, EnumChatFormatting.WHITE + "Timed permissions: " + PermissionsEx.getPermissionManager().getTimedPermissionScheduler().size());
+	}
+
 	@Command(name = "pex", syntax = "help [page] [count]", permission = "permissions.manage", description = "PermissionsEx commands help")
 	public void showHelp(Object plugin, ICommandSender sender, Map<String, String> args) {
 		List<CommandBinding> commands = manager.getCommands();
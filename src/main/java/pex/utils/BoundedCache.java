@@ -0,0 +1,126 @@
+package pex.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe cache with maximum size and LRU eviction. Keeps hit, miss and
+ * eviction counters.
+ */
+public class BoundedCache<K, V> {
+
+	protected final LinkedHashMap<K, V> entries;
+	protected int maxSize;
+
+	protected final AtomicLong hits = new AtomicLong();
+	protected final AtomicLong misses = new AtomicLong();
+	protected final AtomicLong evictions = new AtomicLong();
+
+	public BoundedCache(int maxSize) {
+		this.maxSize = Math.max(1, maxSize);
+		this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				if (size() > BoundedCache.this.maxSize) {
+					evictions.incrementAndGet();
+					return true;
+				}
+
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Returns cached value and counts hit or miss
+	 *
+	 * @param key
+	 * @return cached value or null
+	 */
+	public V get(K key) {
+		V value;
+
+		synchronized (entries) {
+			value = entries.get(key);
+		}
+
+		if (value != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+		}
+
+		return value;
+	}
+
+	public void put(K key, V value) {
+		synchronized (entries) {
+			entries.put(key, value);
+		}
+	}
+
+	public V remove(K key) {
+		synchronized (entries) {
+			return entries.remove(key);
+		}
+	}
+
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Changes maximum size, excess entries are evicted immediately
+	 *
+	 * @param maxSize
+	 */
+	public void setMaxSize(int maxSize) {
+		synchronized (entries) {
+			this.maxSize = Math.max(1, maxSize);
+
+			while (entries.size() > this.maxSize) {
+				K eldest = entries.keySet().iterator().next();
+				entries.remove(eldest);
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public void resetStats() {
+		hits.set(0);
+		misses.set(0);
+		evictions.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "size " + size() + "/" + maxSize + ", hits " + getHits() + ", misses " + getMisses() + ", evictions " + getEvictions();
+	}
+}
@@ -0,0 +1,100 @@
+package pex.permissions;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compile and match times of wide numeric ranges, compiled as NumericRange
+ * tokens (ExpressionPattern) and as regexp alternation of every number
+ * (previous RegExpMatcher behaviour). Plain main class without test
+ * framework, run it with compiled classes on classpath:
+ *
+ * java -cp build/classes/main:build/classes/test pex.permissions.NumericRangeBenchmark [rounds]
+ *
+ * First rounds warm up JIT, only last round is printed.
+ */
+public class NumericRangeBenchmark {
+
+	protected final static String[] EXPRESSIONS = { "item.use.1-4095", "item.use.1-4095.0-15", "block.*.1-4095" };
+	protected final static String[] PERMISSIONS = { "item.use.4094", "item.use.17", "item.use.5000", "item.use.4000.7", "block.x.y.2048" };
+
+	protected final static int COMPILES = 200;
+	protected final static int MATCHES = 200000;
+
+	protected final static Pattern RANGE = Pattern.compile("(\\d+)-(\\d+)");
+
+	public static void main(String[] args) {
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		int hits = 0;
+
+		for (int round = 1; round <= rounds; round++) {
+			for (String expression : EXPRESSIONS) {
+				String alternation = expandRanges(expression);
+
+				long start = System.nanoTime();
+				Pattern oldPattern = null;
+				for (int i = 0; i < COMPILES; i++) {
+					oldPattern = Pattern.compile(alternation, Pattern.CASE_INSENSITIVE);
+				}
+				long oldCompile = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				ExpressionPattern newPattern = null;
+				for (int i = 0; i < COMPILES; i++) {
+					newPattern = ExpressionPattern.compile(expression);
+				}
+				long newCompile = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				for (int i = 0; i < MATCHES; i++) {
+					if (oldPattern.matcher(PERMISSIONS[i % PERMISSIONS.length]).matches()) {
+						hits++;
+					}
+				}
+				long oldMatch = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				for (int i = 0; i < MATCHES; i++) {
+					if (newPattern.matches(PERMISSIONS[i % PERMISSIONS.length])) {
+						hits++;
+					}
+				}
+				long newMatch = System.nanoTime() - start;
+
+				if (round == rounds) {
+					System.out.println(String.format("%-22s compile %8.1fus -> %6.1fus, match %7.0fns -> %5.0fns, regexp length %d -> %d", expression, oldCompile / 1000.0 / COMPILES, newCompile / 1000.0 / COMPILES, oldMatch / (double) MATCHES, newMatch / (double) MATCHES, alternation.length(), newPattern.toString().length()));
+				}
+			}
+		}
+
+		System.out.println("Java " + System.getProperty("java.version") + ", " + hits + " matches");
+	}
+
+	/**
+	 * Regexp of expression with every range expanded to alternation of all
+	 * its numbers, as RegExpMatcher did before ranges were parsed
+	 */
+	protected static String expandRanges(String expression) {
+		String regexp = expression.replace(".", "\\.").replace("*", "(.*)");
+		Matcher matcher = RANGE.matcher(regexp);
+
+		while (matcher.find()) {
+			int from = Integer.parseInt(matcher.group(1));
+			int to = Integer.parseInt(matcher.group(2));
+
+			StringBuilder builder = new StringBuilder("(");
+			for (int i = from; i <= to; i++) {
+				if (i > from) {
+					builder.append('|');
+				}
+
+				builder.append(i);
+			}
+			builder.append(')');
+
+			regexp = regexp.replace(matcher.group(0), builder.toString());
+		}
+
+		return regexp;
+	}
+}